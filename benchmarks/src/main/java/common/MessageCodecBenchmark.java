@@ -0,0 +1,104 @@
+package common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mã hóa/giải mã một Message với từng loại payload, qua Java serialization
+ * (ObjectOutputStream/ObjectInputStream, SerializedCodec) và qua BinaryCodec.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageCodecBenchmark {
+
+    @Param({ "serialized", "binary" })
+    public String codec;
+
+    @Param({ "chat", "kick_result", "update_score", "presence_delta", "user_list", "leaderboard", "match_details" })
+    public String payload;
+
+    private MessageCodec messageCodec;
+    private Message message;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        messageCodec = "binary".equals(codec) ? new BinaryCodec() : new SerializedCodec();
+        message = sampleMessage(payload);
+        encoded = messageCodec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return messageCodec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return messageCodec.decode(encoded, 0, encoded.length);
+    }
+
+    @Benchmark
+    public Message roundTrip() throws IOException {
+        byte[] bytes = messageCodec.encode(message);
+        return messageCodec.decode(bytes, 0, bytes.length);
+    }
+
+    // Message tiêu biểu cho từng loại payload, kích thước như lúc chạy thật
+    static Message sampleMessage(String payload) {
+        switch (payload) {
+            case "chat":
+                return new Message("chat", "player1: chơi một trận không?");
+            case "kick_result":
+                return new Message("kick_result", "win-Left-Right");
+            case "update_score":
+                return new Message("update_score", new int[] { 2, 1, 4 });
+            case "presence_delta":
+                return new Message("presence_delta", new PresenceDelta(42, "player42", 120, "ingame", 123456L));
+            case "user_list": {
+                List<User> users = new ArrayList<>();
+                for (int i = 1; i <= 100; i++) {
+                    users.add(new User(i, "player" + i, i * 3, i % 3 == 0 ? "ingame" : "online"));
+                }
+                return new Message("user_list", users);
+            }
+            case "leaderboard": {
+                List<UserStats> stats = new ArrayList<>();
+                for (int i = 1; i <= 100; i++) {
+                    stats.add(new UserStats(new User(i, "player" + i, 1000 - i * 3, "online"), 200 - i, 150 - i));
+                }
+                return new Message("leaderboard", stats);
+            }
+            case "match_details": {
+                List<MatchDetails> details = new ArrayList<>();
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                for (int round = 1; round <= 10; round++) {
+                    details.add(new MatchDetails(round, 7, (round + 1) / 2, round % 2 + 1, 2 - round % 2,
+                            "Left", "Right", round % 3 == 0 ? "lose" : "win", now));
+                }
+                return new Message("match_details", details);
+            }
+            default:
+                throw new IllegalArgumentException("Không có payload mẫu: " + payload);
+        }
+    }
+}
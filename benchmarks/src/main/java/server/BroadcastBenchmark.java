@@ -0,0 +1,88 @@
+package server;
+
+import common.BinaryCodec;
+import common.Message;
+import common.MessageCodec;
+import common.SerializedCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server.broadcast tới 1k/10k ClientHandler. Mỗi kết nối giả lấy frame đã mã hóa như
+ * NioConnection/StreamConnection rồi bỏ đi, nên số đo là chi phí mã hóa một lần cộng fan-out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int handlers;
+
+    @Param({ "serialized", "binary" })
+    public String codec;
+
+    private Server server;
+    private Message message;
+
+    // Kết nối chỉ nhận frame, không ghi ra socket
+    private static final class SinkConnection implements ClientConnection {
+        private final MessageCodec codec;
+        long bytes;
+
+        SinkConnection(MessageCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public void send(Message message) throws IOException {
+            bytes += codec.encode(message).length;
+        }
+
+        @Override
+        public boolean sendBroadcast(Broadcast broadcast) throws IOException {
+            bytes += broadcast.frameFor(codec).length;
+            return true;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup
+    public void setup() {
+        // Không nối DB, không mở cổng: chỉ cần bảng client và đường broadcast
+        server = Server.detached(new ServerConfig());
+        MessageCodec messageCodec = "binary".equals(codec) ? new BinaryCodec() : new SerializedCodec();
+        for (int id = 1; id <= handlers; id++) {
+            server.addClient(id, new ClientHandler(new SinkConnection(messageCodec), server, null));
+        }
+        message = new Message("chat", "player1: chơi một trận không?");
+    }
+
+    @Benchmark
+    public void broadcast() {
+        server.broadcast(message);
+    }
+}
@@ -0,0 +1,172 @@
+package server;
+
+import common.MatchDetails;
+import common.Pair;
+import common.User;
+import common.UserStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Các lời gọi DatabaseManager trên H2 nhúng (chế độ MySQL), đi qua ConnectionPool và
+ * statement cache như khi chạy thật. Chỉ so sánh được giữa các lần chạy, không thay cho số đo trên MySQL.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DatabaseBenchmark {
+
+    private static final String URL = "jdbc:h2:mem:penalty_bench;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    private static final int USERS = 1000;
+    private static final int MATCHES = 5000;
+
+    // Lược đồ như database_setup.sql, viết theo cú pháp H2 chấp nhận
+    private static final String[] SCHEMA = {
+            "DROP ALL OBJECTS",
+            "CREATE TABLE users (id INT AUTO_INCREMENT PRIMARY KEY, username VARCHAR(50) UNIQUE NOT NULL, "
+                    + "password VARCHAR(255) NOT NULL, points INT DEFAULT 0, status VARCHAR(20) DEFAULT 'offline', "
+                    + "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)",
+            "CREATE TABLE matches (id INT AUTO_INCREMENT PRIMARY KEY, player1_id INT NOT NULL, "
+                    + "player2_id INT NOT NULL, winner_id INT NULL, end_reason VARCHAR(50) NULL, "
+                    + "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP, "
+                    + "FOREIGN KEY (player1_id) REFERENCES users(id), FOREIGN KEY (player2_id) REFERENCES users(id))",
+            "CREATE TABLE match_details (id INT AUTO_INCREMENT PRIMARY KEY, match_id INT NOT NULL, "
+                    + "round INT NOT NULL, shooter_id INT NOT NULL, goalkeeper_id INT NOT NULL, "
+                    + "shooter_direction VARCHAR(20), goalkeeper_direction VARCHAR(20), result VARCHAR(20), "
+                    + "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP, FOREIGN KEY (match_id) REFERENCES matches(id))",
+            "CREATE TABLE user_stats (user_id INT PRIMARY KEY, points INT NOT NULL DEFAULT 0, "
+                    + "goals_scored INT NOT NULL DEFAULT 0, goals_saved INT NOT NULL DEFAULT 0, "
+                    + "FOREIGN KEY (user_id) REFERENCES users(id))",
+            "CREATE INDEX idx_user_stats_rank ON user_stats (points DESC, goals_scored DESC, goals_saved DESC)",
+            "CREATE INDEX idx_matches_player1 ON matches (player1_id)",
+            "CREATE INDEX idx_matches_player2 ON matches (player2_id)",
+            "CREATE INDEX idx_match_details_match ON match_details (match_id)"
+    };
+
+    private DatabaseManager dbManager;
+    private SplittableRandom random;
+    private int matchId;
+
+    @Setup
+    public void setup() throws SQLException {
+        random = new SplittableRandom(11);
+        try (Connection conn = DriverManager.getConnection(URL, "sa", "")) {
+            try (Statement stmt = conn.createStatement()) {
+                for (String ddl : SCHEMA) {
+                    stmt.executeUpdate(ddl);
+                }
+            }
+            seed(conn);
+        }
+        ServerConfig config = new ServerConfig();
+        config.setDbUrl(URL);
+        config.setDbUser("sa");
+        config.setDbPassword("");
+        dbManager = new DatabaseManager(config);
+        dbManager.start();
+        matchId = dbManager.saveMatch(1, 2, 0);
+    }
+
+    // USERS user, MATCHES trận mỗi trận 10 lượt sút
+    private void seed(Connection conn) throws SQLException {
+        conn.setAutoCommit(false);
+        try (PreparedStatement user = conn.prepareStatement(
+                "INSERT INTO users (username, password, points) VALUES (?, ?, ?)");
+                PreparedStatement stats = conn.prepareStatement(
+                        "INSERT INTO user_stats (user_id, points, goals_scored, goals_saved) VALUES (?, ?, ?, ?)")) {
+            for (int id = 1; id <= USERS; id++) {
+                int points = random.nextInt(3000);
+                user.setString(1, "player" + id);
+                user.setString(2, "password" + id);
+                user.setInt(3, points);
+                user.addBatch();
+                stats.setInt(1, id);
+                stats.setInt(2, points);
+                stats.setInt(3, random.nextInt(500));
+                stats.setInt(4, random.nextInt(500));
+                stats.addBatch();
+            }
+            user.executeBatch();
+            stats.executeBatch();
+        }
+        try (PreparedStatement match = conn.prepareStatement(
+                "INSERT INTO matches (player1_id, player2_id, winner_id) VALUES (?, ?, ?)");
+                PreparedStatement kick = conn.prepareStatement("INSERT INTO match_details (match_id, round, "
+                        + "shooter_id, goalkeeper_id, shooter_direction, goalkeeper_direction, result) "
+                        + "VALUES (?, ?, ?, ?, 'Left', 'Right', ?)")) {
+            for (int id = 1; id <= MATCHES; id++) {
+                int player1 = 1 + random.nextInt(USERS);
+                int player2 = 1 + (player1 + random.nextInt(USERS - 1)) % USERS;
+                match.setInt(1, player1);
+                match.setInt(2, player2);
+                match.setInt(3, player1);
+                match.addBatch();
+                for (int turn = 0; turn < 10; turn++) {
+                    kick.setInt(1, id);
+                    kick.setInt(2, turn / 2 + 1);
+                    kick.setInt(3, turn % 2 == 0 ? player1 : player2);
+                    kick.setInt(4, turn % 2 == 0 ? player2 : player1);
+                    kick.setString(5, random.nextInt(3) == 0 ? "lose" : "win");
+                    kick.addBatch();
+                }
+            }
+            match.executeBatch();
+            kick.executeBatch();
+        }
+        conn.commit();
+    }
+
+    private int randomUser() {
+        return 1 + random.nextInt(USERS);
+    }
+
+    @Benchmark
+    public Pair<User, Boolean> authenticate() throws SQLException {
+        int id = randomUser();
+        return dbManager.authenticate("player" + id, "password" + id);
+    }
+
+    @Benchmark
+    public List<MatchDetails> matchHistory() throws SQLException {
+        return dbManager.getUserMatchHistory(randomUser());
+    }
+
+    @Benchmark
+    public List<UserStats> leaderboard() throws SQLException {
+        return dbManager.getLeaderboardWithStats();
+    }
+
+    // Ghi một lượt sút đồng bộ: match_details và user_stats trong một transaction
+    @Benchmark
+    public void saveKick() throws SQLException {
+        int shooter = randomUser();
+        int goalkeeper = 1 + shooter % USERS;
+        dbManager.saveMatchDetails(matchId, 1, shooter, goalkeeper, "Left", "Right",
+                random.nextBoolean() ? "win" : "lose");
+    }
+
+    @Benchmark
+    public int saveMatch() throws SQLException {
+        return dbManager.saveMatch(randomUser(), randomUser(), 0);
+    }
+}
@@ -0,0 +1,65 @@
+package server;
+
+import common.User;
+import common.UserStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Các thao tác của bảng xếp hạng trong bộ nhớ: ghi một lượt sút, lấy top 100, tra thứ hạng.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LeaderboardBenchmark {
+
+    @Param({ "10000", "100000" })
+    public int users;
+
+    private Leaderboard leaderboard;
+    private SplittableRandom random;
+
+    @Setup
+    public void setup() {
+        random = new SplittableRandom(7);
+        List<UserStats> stats = new ArrayList<>(users);
+        for (int id = 1; id <= users; id++) {
+            User user = new User(id, "player" + id, random.nextInt(3000), "offline");
+            stats.add(new UserStats(user, random.nextInt(500), random.nextInt(500)));
+        }
+        leaderboard = new Leaderboard();
+        leaderboard.loadAll(stats);
+    }
+
+    @Benchmark
+    public void recordKick() {
+        leaderboard.recordKick(1 + random.nextInt(users), 1 + random.nextInt(users), random.nextBoolean());
+    }
+
+    @Benchmark
+    public List<UserStats> top100() {
+        return leaderboard.top(100, id -> "offline");
+    }
+
+    @Benchmark
+    public int rankOf() {
+        return leaderboard.rankOf(1 + random.nextInt(users));
+    }
+}
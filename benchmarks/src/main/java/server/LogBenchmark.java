@@ -0,0 +1,41 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chi phí trên thread gọi của Log: lệnh debug khi mức log là info (phải gần như bằng không)
+ * và lệnh info được ghi vào ring buffer, với nhiều thread cùng ghi.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dpenalty.log.level=info", "-Dpenalty.log.file=target/log-benchmark.log" })
+@Threads(4)
+@State(Scope.Benchmark)
+public class LogBenchmark {
+
+    private int matchId = 123456;
+    private String result = "win-Left-Right";
+
+    @Benchmark
+    public void debugDisabled() {
+        Log.debug("kick", "match", matchId, "result", result);
+    }
+
+    @Benchmark
+    public void infoEnabled() {
+        Log.info("kick", "match", matchId, "result", result);
+    }
+}
@@ -0,0 +1,57 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mô phỏng trọn một loạt sút (kể cả sudden death) bằng ShootoutEngine, phần luật mà GameRoom
+ * gọi sau mỗi lượt bắt. Kết quả từng lượt được dựng sẵn để không đo bộ sinh số ngẫu nhiên.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShootoutBenchmark {
+
+    private static final int KICKS = 1 << 16;
+
+    private final boolean[] goals = new boolean[KICKS];
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < KICKS; i++) {
+            // Thủ môn đoán đúng một trong ba hướng
+            goals[i] = random.nextInt(3) != 0;
+        }
+    }
+
+    // Một trận từ START tới END, trả về số lượt sút
+    @Benchmark
+    public int fullMatch() {
+        int state = ShootoutEngine.START;
+        int kicks = 0;
+        while (true) {
+            int transition = ShootoutEngine.next(state, goals[cursor++ & (KICKS - 1)]);
+            kicks++;
+            if (ShootoutEngine.action(transition) == ShootoutEngine.END) {
+                return kicks;
+            }
+            state = ShootoutEngine.state(transition);
+        }
+    }
+}
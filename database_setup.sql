@@ -44,6 +44,18 @@ CREATE TABLE IF NOT EXISTS match_details (
     FOREIGN KEY (goalkeeper_id) REFERENCES users(id) ON DELETE CASCADE
 );
 
+-- Tạo bảng user_stats (số bàn thắng/bàn cứu cộng dồn, cập nhật cùng transaction với match_details)
+-- points là bản sao của users.points để xếp hạng chỉ cần đọc một bảng theo chỉ mục
+-- Với database cũ: tạo bảng rồi chạy server.UserStatsRebuilder để tính lại từ match_details
+CREATE TABLE IF NOT EXISTS user_stats (
+    user_id INT PRIMARY KEY,
+    points INT NOT NULL DEFAULT 0,
+    goals_scored INT NOT NULL DEFAULT 0,
+    goals_saved INT NOT NULL DEFAULT 0,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    INDEX idx_user_stats_rank (points DESC, goals_scored DESC, goals_saved DESC)
+);
+
 -- Tạo một số user mẫu để test (tùy chọn)
 -- Mật khẩu: password123 (bạn có thể thay đổi)
 INSERT INTO users (username, password, points, status) VALUES
@@ -52,6 +64,9 @@ INSERT INTO users (username, password, points, status) VALUES
 ('admin', 'admin123', 0, 'offline')
 ON DUPLICATE KEY UPDATE username=username;
 
+INSERT IGNORE INTO user_stats (user_id, points)
+SELECT id, points FROM users;
+
 -- Hiển thị thông báo thành công
 SELECT 'Database và các bảng đã được tạo thành công!' AS Message;
 
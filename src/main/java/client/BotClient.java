@@ -0,0 +1,352 @@
+package client;
+
+import common.Message;
+import common.MessageCodec;
+import common.Protocol;
+import common.Tracer;
+import common.User;
+import common.UserQuery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Một người chơi giả lập, không có giao diện: nói cùng giao thức với Client nhưng tự quyết định
+ * mọi nước đi theo cấu hình của LoadGenerator. Thread đọc là virtual thread, mỗi hành động
+ * (có thời gian suy nghĩ) chạy trên một virtual thread riêng, nên một JVM chạy được hàng chục nghìn bot.
+ */
+class BotClient {
+
+    private static final int LOBBY = 0;
+    private static final int MATCHING = 1;
+    private static final int IN_GAME = 2;
+
+    private static final String[] DIRECTIONS = { "Left", "Middle", "Right" };
+    // Yêu cầu -> các message trả lời dùng để đo độ trễ
+    private static final Map<String, String> REPLY_TO = Map.ofEntries(
+            Map.entry("register_success", "register"), Map.entry("register_error", "register"),
+            Map.entry("login_success", "login"), Map.entry("login_failure", "login"),
+            Map.entry("user_list", "get_users"), Map.entry("leaderboard", "get_leaderboard"),
+            Map.entry("rank", "get_rank"), Map.entry("match_start", "request_match"),
+            Map.entry("match_response", "request_match"), Map.entry("queue_status", "queue_join"),
+            // Người sút nhận opponent_turn ngay khi server nhận cú sút, người bắt nhận kick_result
+            Map.entry("opponent_turn", "shoot"), Map.entry("kick_result", "goalkeeper"));
+
+    private final LoadGenerator generator;
+    private final String username;
+    private final String password;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Thời điểm gửi của yêu cầu đang chờ trả lời, theo loại
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+
+    private Socket socket;
+    private DataOutputStream out;
+    private MessageCodec codec;
+    private volatile User user;
+    private volatile int state = LOBBY;
+    private volatile boolean registered;
+    // Id những người đang online theo lần get_users gần nhất
+    private volatile int[] onlineIds = new int[0];
+    // Tăng mỗi lần tìm trận; lần kiểm tra hết giờ chờ cũ thấy lệch số thì bỏ qua
+    private volatile int matchSeq;
+    private volatile int lobbySeq;
+
+    BotClient(LoadGenerator generator, String username, String password) {
+        this.generator = generator;
+        this.username = username;
+        this.password = password;
+    }
+
+    boolean isInGame() {
+        return state == IN_GAME;
+    }
+
+    boolean isConnected() {
+        Socket s = socket;
+        return s != null && !s.isClosed();
+    }
+
+    // Kết nối, bắt tay giao thức rồi đăng ký (lần đầu) hoặc đăng nhập
+    void connect() {
+        try {
+            Socket s = new Socket(generator.getHost(), generator.getPort());
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream o = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            if (in.readInt() != Protocol.STREAM_HEADER) {
+                throw new IOException("Server trả về header không hợp lệ");
+            }
+            int magic = Protocol.magicFor(generator.getProtocol());
+            o.writeInt(magic);
+            o.flush();
+            codec = Protocol.codecFor(magic);
+            socket = s;
+            out = o;
+            state = LOBBY;
+            generator.onConnected();
+            Thread.ofVirtual().name("bot-" + username).start(() -> readLoop(s, in));
+            if (registered) {
+                request(new Message("login", new String[] { username, password }));
+            } else {
+                request(new Message("register", new String[] { username, password }));
+            }
+        } catch (IOException e) {
+            generator.onConnectFailed();
+            reconnectLater();
+        }
+    }
+
+    void close() {
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // bỏ qua
+            }
+        }
+    }
+
+    private void readLoop(Socket s, DataInputStream in) {
+        try {
+            while (!s.isClosed()) {
+                byte[] payload = Protocol.readFrame(in);
+                handle(codec.decode(payload, 0, payload.length));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Mất kết nối hoặc bot tự ngắt
+        } finally {
+            close();
+            user = null;
+            pending.clear();
+            generator.onDisconnected();
+            reconnectLater();
+        }
+    }
+
+    private void reconnectLater() {
+        if (generator.isRunning()) {
+            later(generator.getReconnectThink().sample(), this::connect);
+        }
+    }
+
+    private void handle(Message message) {
+        String type = message.getType();
+        generator.onReceived(type);
+        String request = REPLY_TO.get(type);
+        if (request != null) {
+            Long sentAt = pending.remove(request);
+            if (sentAt != null) {
+                generator.recordLatency(request, System.nanoTime() - sentAt);
+            }
+        }
+        switch (type) {
+            case "register_success":
+            case "register_error":
+                // register_error: tên đã có từ lần chạy trước, đăng nhập luôn
+                registered = true;
+                request(new Message("login", new String[] { username, password }));
+                break;
+            case "login_success":
+                user = (User) message.getContent();
+                state = LOBBY;
+                scheduleLobbyAction();
+                break;
+            case "login_failure":
+                // Phiên cũ chưa được server dọn, thử lại sau
+                close();
+                break;
+            case "user_list":
+                rememberOnline(message.getContent());
+                break;
+            case "match_request":
+                answerMatchRequest((Integer) message.getContent());
+                break;
+            case "match_response":
+                // Bị từ chối hoặc đối thủ không sẵn sàng
+                backToLobby();
+                break;
+            case "queue_status":
+                if (!"waiting".equals(message.getContent())) {
+                    backToLobby();
+                }
+                break;
+            case "match_start":
+                state = IN_GAME;
+                break;
+            case "your_turn":
+                scheduleTurn("shoot");
+                break;
+            case "goalkeeper_turn":
+                scheduleTurn("goalkeeper");
+                break;
+            case "opponent_turn":
+            case "kick_result":
+                // Trả lời cho cú sút/lệnh bắt; bot không vẽ gì nên trace kết thúc khi nhận
+                Tracer.finish(message.getTrace(), "client.receive");
+                break;
+            case "play_again_request":
+                later(generator.getTurnThink().sample(), () -> send(new Message("play_again_response",
+                        ThreadLocalRandom.current().nextDouble() < generator.getRematchRate())));
+                break;
+            case "match_end":
+                backToLobby();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void rememberOnline(Object content) {
+        if (!(content instanceof List)) {
+            return;
+        }
+        List<?> users = (List<?>) content;
+        User self = user;
+        int[] ids = new int[users.size()];
+        int n = 0;
+        for (Object o : users) {
+            User u = (User) o;
+            if ("online".equals(u.getStatus()) && (self == null || u.getId() != self.getId())) {
+                ids[n++] = u.getId();
+            }
+        }
+        onlineIds = Arrays.copyOf(ids, n);
+    }
+
+    private void answerMatchRequest(int requesterId) {
+        boolean accept = state != IN_GAME && ThreadLocalRandom.current().nextDouble() < generator.getAcceptRate();
+        if (accept) {
+            // Người mời có thể đã vào trận khác và server không gửi gì thêm: chờ như khi tự tìm trận
+            int seq = ++matchSeq;
+            state = MATCHING;
+            later(generator.getMatchTimeoutMillis(), () -> {
+                if (state == MATCHING && seq == matchSeq) {
+                    generator.onAcceptTimeout();
+                    backToLobby();
+                }
+            });
+        }
+        later(generator.getLobbyThink().sample(),
+                () -> send(new Message("match_response", new Object[] { requesterId, accept })));
+    }
+
+    private void backToLobby() {
+        state = LOBBY;
+        scheduleLobbyAction();
+    }
+
+    // Một hành động ở sảnh: xem danh sách, bảng xếp hạng, thứ hạng, hoặc tìm trận.
+    // Chỉ lần hẹn mới nhất được chạy, nên trả lời đến muộn không sinh thêm vòng hành động
+    private void scheduleLobbyAction() {
+        int seq = ++lobbySeq;
+        later(generator.getLobbyThink().sample(), () -> {
+            if (seq != lobbySeq || state != LOBBY || user == null) {
+                return;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double r = random.nextDouble();
+            if (r < 0.3) {
+                request(new Message("get_users", new UserQuery(null, true, 0, 100)));
+            } else if (r < 0.4) {
+                request(new Message("get_leaderboard", null));
+            } else if (r < 0.5) {
+                request(new Message("get_rank", null));
+            } else {
+                findMatch(random);
+                return;
+            }
+            scheduleLobbyAction();
+        });
+    }
+
+    private void findMatch(ThreadLocalRandom random) {
+        int[] ids = onlineIds;
+        int seq = ++matchSeq;
+        state = MATCHING;
+        if (ids.length == 0 || random.nextDouble() < generator.getQueueRate()) {
+            request(new Message("queue_join", null));
+            // Chờ quá lâu thì rời hàng và làm việc khác
+            later(generator.getMatchTimeoutMillis(), () -> {
+                if (state == MATCHING && seq == matchSeq) {
+                    send(new Message("queue_leave", null));
+                }
+            });
+        } else {
+            request(new Message("request_match", ids[random.nextInt(ids.length)]));
+            // Đối thủ có thể không bao giờ trả lời lời mời
+            later(generator.getMatchTimeoutMillis(), () -> {
+                if (state == MATCHING && seq == matchSeq) {
+                    pending.remove("request_match");
+                    backToLobby();
+                }
+            });
+        }
+    }
+
+    // Lượt sút/bắt: đôi khi bỏ lượt, bỏ trận hoặc ngắt kết nối giữa trận
+    private void scheduleTurn(String move) {
+        later(generator.getTurnThink().sample(), () -> {
+            if (state != IN_GAME) {
+                return;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double r = random.nextDouble();
+            if (r < generator.getDropRate()) {
+                generator.onDropped();
+                close();
+            } else if (r < generator.getDropRate() + generator.getQuitRate()) {
+                send(new Message("quit_game", null));
+            } else if (r < generator.getDropRate() + generator.getQuitRate() + generator.getIdleRate()) {
+                // Bỏ lượt, để server tự chốt khi hết giờ
+            } else {
+                request(new Message(move, DIRECTIONS[random.nextInt(DIRECTIONS.length)], Tracer.sample()));
+            }
+        });
+    }
+
+    private void later(long delayMillis, Runnable action) {
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            action.run();
+        });
+    }
+
+    // Gửi yêu cầu có trả lời để đo độ trễ
+    private void request(Message message) {
+        pending.put(message.getType(), System.nanoTime());
+        send(message);
+    }
+
+    private void send(Message message) {
+        writeLock.lock();
+        try {
+            DataOutputStream o = out;
+            if (o == null || !isConnected()) {
+                return;
+            }
+            Tracer.mark(message.getTrace(), "client.send");
+            Protocol.writeFrame(o, codec.encode(message));
+            o.flush();
+            generator.onSent();
+        } catch (IOException e) {
+            close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
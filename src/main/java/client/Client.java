@@ -3,9 +3,14 @@ package client;
 import client.GUI.GameRoomController;
 import client.GUI.LoginController;
 import client.GUI.MainController;
+import common.ManagedObjectOutputStream;
 import common.Match;
 import common.MatchDetails;
 import common.Message;
+import common.MessageCodec;
+import common.PresenceDelta;
+import common.Protocol;
+import common.Tracer;
 import common.User;
 import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
@@ -14,18 +19,27 @@ import javafx.scene.Scene;
 import javafx.stage.Stage;
 import javafx.scene.control.Alert;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Client {
 
     private Socket socket;
-    private ObjectOutputStream out;
+    private ManagedObjectOutputStream out;
     private ObjectInputStream in;
+    // Giao thức nhị phân (mặc định), "framed" hoặc "legacy" (ObjectStream như cũ) qua -Dpenalty.protocol
+    private final String protocol = System.getProperty("penalty.protocol", Protocol.BINARY);
+    private MessageCodec codec;
+    private DataInputStream dataIn;
+    private DataOutputStream dataOut;
     private User user;
     private Stage primaryStage;
 
@@ -36,6 +50,8 @@ public class Client {
     private GameRoomController gameRoomController;
 
     private volatile boolean isRunning = true;
+    // Version presence_delta lớn nhất đã nhận, dùng cho presence_sync khi nối lại
+    private volatile long presenceVersion = 0;
 
     public Client(Stage primaryStage) {
         this.primaryStage = primaryStage;
@@ -62,9 +78,23 @@ public class Client {
     public void startConnection(String address, int port) {
         try {
             socket = new Socket(address, port);
-            in = new ObjectInputStream(socket.getInputStream());
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush();
+            int magic = Protocol.magicFor(protocol);
+            if (magic == 0) {
+                in = new ObjectInputStream(socket.getInputStream());
+                // Reset định kỳ (-Dpenalty.serialization.resetMessages/resetBytes) để không rò rỉ handle table
+                out = new ManagedObjectOutputStream(socket.getOutputStream());
+                out.flush();
+            } else {
+                dataIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                // Server luôn gửi header ObjectOutputStream trước, bỏ qua rồi trả lời bằng magic
+                if (dataIn.readInt() != Protocol.STREAM_HEADER) {
+                    throw new IOException("Server trả về header không hợp lệ");
+                }
+                dataOut.writeInt(magic);
+                dataOut.flush();
+                codec = Protocol.codecFor(magic);
+            }
             isRunning = true; // Đặt lại isRunning thành true
             listenForMessages();
         } catch (IOException e) {
@@ -77,7 +107,7 @@ public class Client {
         new Thread(() -> {
             try {
                 while (isRunning) {
-                    Message message = (Message) in.readObject();
+                    Message message = readMessage();
                     if (message != null) {
                         handleMessage(message);
                     }
@@ -105,6 +135,14 @@ public class Client {
         }).start();
     }
 
+    private Message readMessage() throws IOException, ClassNotFoundException {
+        if (codec == null) {
+            return (Message) in.readObject();
+        }
+        byte[] payload = Protocol.readFrame(dataIn);
+        return codec.decode(payload, 0, payload.length);
+    }
+
     private void handleMessage(Message message) {
         System.out.println("[DEBUG CLIENT] Received message: " + message.getType() + " - " + message.getContent());
         if (message == null) {
@@ -152,6 +190,29 @@ public class Client {
                     }
                 });
                 break;
+            case "presence_delta":
+                // Một delta hoặc một lô; kiểm tra từng phần tử thay vì ép kiểu cả list
+                List<PresenceDelta> deltas = new ArrayList<>();
+                if (message.getContent() instanceof List) {
+                    for (Object item : (List<?>) message.getContent()) {
+                        if (item instanceof PresenceDelta) {
+                            deltas.add((PresenceDelta) item);
+                        }
+                    }
+                } else if (message.getContent() instanceof PresenceDelta) {
+                    deltas.add((PresenceDelta) message.getContent());
+                }
+                for (PresenceDelta delta : deltas) {
+                    presenceVersion = Math.max(presenceVersion, delta.getVersion());
+                }
+                Platform.runLater(() -> {
+                    if (mainController != null) {
+                        for (PresenceDelta delta : deltas) {
+                            mainController.applyPresenceDelta(delta);
+                        }
+                    }
+                });
+                break;
             case "status_update":
                 Platform.runLater(() -> {
                     if (mainController != null) {
@@ -187,6 +248,7 @@ public class Client {
                 });
                 break;
             case "kick_result":
+                Tracer.mark(message.getTrace(), "client.receive");
                 Platform.runLater(() -> {
                     if (gameRoomController != null) {
                         String[] result = ((String) message.getContent()).split("-");
@@ -196,6 +258,8 @@ public class Client {
                             gameRoomController.animateShootKhongVao(result[1], result[2]);
                         }
                     }
+                    // Hàm animate tự xếp animation vào runLater; mốc render lấy sau khi animation đã chạy
+                    Platform.runLater(() -> Tracer.finish(message.getTrace(), "client.render"));
                 });
                 break;
             case "round_result":
@@ -327,10 +391,13 @@ public class Client {
 
             case "opponent_turn":
                 int duration2 = (int) message.getContent();
+                // Trả lời cho cú sút của mình (nếu được lấy mẫu)
+                Tracer.mark(message.getTrace(), "client.receive");
                 Platform.runLater(() -> {
                     if (gameRoomController != null) {
                         gameRoomController.handleOpponentTurn(duration2);
                     }
+                    Tracer.finish(message.getTrace(), "client.render");
                 });
                 break;
                 
@@ -358,12 +425,18 @@ public class Client {
 
     public void sendMessage(Message message) throws IOException {
         System.out.println("[DEBUG CLIENT] Sending message - Type: " + message.getType());
+        Tracer.mark(message.getTrace(), "client.send");
+        if (codec != null) {
+            Protocol.writeFrame(dataOut, codec.encode(message));
+            dataOut.flush();
+            System.out.println("[DEBUG CLIENT] Message sent and flushed successfully");
+            return;
+        }
         if (out == null) {
             System.err.println("[ERROR CLIENT] ObjectOutputStream is null!");
             throw new IOException("ObjectOutputStream chưa được khởi tạo");
         }
-        out.writeObject(message);
-        out.flush();
+        out.writeMessage(message);
         System.out.println("[DEBUG CLIENT] Message sent and flushed successfully");
     }
 
@@ -396,7 +469,6 @@ public class Client {
             primaryStage.setMinWidth(400);
             primaryStage.setMinHeight(300);
             primaryStage.show();
-            sendMessage(new Message("get_users", null));
         } catch (IOException e) {
             e.printStackTrace();
             showErrorAlert("Không thể tải giao diện chính.");
@@ -516,6 +588,10 @@ public class Client {
         return user;
     }
 
+    public long getPresenceVersion() {
+        return presenceVersion;
+    }
+
     public void closeConnection() throws IOException {
         isRunning = false; // Dừng luồng lắng nghe
         if (in != null) {
@@ -524,6 +600,12 @@ public class Client {
         if (out != null) {
             out.close();
         }
+        if (dataIn != null) {
+            dataIn.close();
+        }
+        if (dataOut != null) {
+            dataOut.close();
+        }
         if (socket != null && !socket.isClosed()) {
             socket.close();
         }
@@ -2,6 +2,7 @@ package client.GUI;
 
 import client.Client;
 import common.Message;
+import common.Tracer;
 import java.io.File;
 import java.io.IOException;
 import java.util.Optional;
@@ -389,7 +390,7 @@ public class GameRoomController {
             if (timeRemaining < 0) {
                 return;
             }
-            Message shootMessage = new Message("shoot", direction);
+            Message shootMessage = new Message("shoot", direction, Tracer.sample());
             try {
                 client.sendMessage(shootMessage);
                 System.out.println("Sent shoot direction: " + direction);
@@ -655,7 +656,7 @@ public class GameRoomController {
             if (timeRemaining < 0) {
                 return;
             }
-            Message goalkeeperMessage = new Message("goalkeeper", direction);
+            Message goalkeeperMessage = new Message("goalkeeper", direction, Tracer.sample());
             try {
                 client.sendMessage(goalkeeperMessage);
                 System.out.println("Sent goalkeeper direction: " + direction);
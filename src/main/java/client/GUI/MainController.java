@@ -4,7 +4,9 @@ import client.Client;
 import common.Match;
 import common.MatchDetails;
 import common.Message;
+import common.PresenceDelta;
 import common.User;
+import common.UserQuery;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -15,7 +17,9 @@ import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.scene.control.cell.PropertyValueFactory;
@@ -47,6 +51,14 @@ public class MainController {
 
     private Client client;
     private ObservableList<User> usersList = FXCollections.observableArrayList();
+    // Tra cứu theo id để áp presence_delta mà không duyệt cả danh sách
+    private final Map<Integer, User> usersById = new HashMap<>();
+    // Số user mỗi lần tải, khoảng một màn hình của bảng; trang sau lấy khi bấm "Xem thêm"
+    private static final int USER_PAGE_SIZE = 50;
+    // Truy vấn đang hiển thị và user cuối của trang vừa nhận (con trỏ cho trang sau)
+    private UserQuery userQuery;
+    private User lastPageUser;
+    private boolean appendUsers;
 
     @FXML
     private TableView<common.UserStats> leaderboardTable;
@@ -119,9 +131,15 @@ public class MainController {
     }
 
     private void loadUsers() throws IOException {
-        // Gửi yêu cầu lấy danh sách người chơi
-        Message request = new Message("get_users", null);
-        client.sendMessage(request);
+        // Mặc định chỉ tải trang đầu của người đang online, không tải cả bảng users
+        requestUsers(new UserQuery(null, true, 0, USER_PAGE_SIZE), false);
+    }
+
+    // append = true: trang tiếp theo được nối vào danh sách đang hiển thị
+    private void requestUsers(UserQuery query, boolean append) throws IOException {
+        userQuery = query;
+        appendUsers = append;
+        client.sendMessage(new Message("get_users", query));
     }
 
     @FXML
@@ -136,42 +154,74 @@ public class MainController {
     }
 
     @FXML
-    private void handleFilterOnline() {
-        ObservableList<User> filtered = FXCollections.observableArrayList();
-        for (User user : usersList) {
-            if (user.getStatus().equalsIgnoreCase("online")) {
-                filtered.add(user);
-            }
-        }
-        usersTable.setItems(filtered);
+    private void handleFilterOnline() throws IOException {
+        String keyword = searchField.getText().trim();
+        requestUsers(new UserQuery(keyword.isEmpty() ? null : keyword, true, 0, USER_PAGE_SIZE), false);
     }
 
+    // Server tìm theo tiền tố username trên toàn bộ danh bạ, không chỉ trong trang đang hiển thị
     @FXML
-    private void handleSearch() {
-        String keyword = searchField.getText().toLowerCase();
+    private void handleSearch() throws IOException {
+        String keyword = searchField.getText().trim();
         if (keyword.isEmpty()) {
-            usersTable.setItems(usersList);
+            loadUsers();
             return;
         }
-        ObservableList<User> filtered = FXCollections.observableArrayList();
-        for (User user : usersList) {
-            if (user.getUsername().toLowerCase().contains(keyword)) {
-                filtered.add(user);
-            }
+        requestUsers(new UserQuery(keyword, false, 0, USER_PAGE_SIZE), false);
+    }
+
+    @FXML
+    private void handleLoadMore() throws IOException {
+        if (userQuery != null && lastPageUser != null) {
+            requestUsers(userQuery.after(lastPageUser), true);
         }
-        usersTable.setItems(filtered);
     }
 
     // Cập nhật danh sách người chơi từ server
     public void updateUsersList(List<User> newUsers) {
-        Platform.runLater(() -> {
+        // Đang ở FX thread thì áp ngay, để presence_delta đến sau không bị danh sách cũ ghi đè
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(() -> updateUsersList(newUsers));
+            return;
+        }
+        if (appendUsers) {
+            for (User user : newUsers) {
+                if (usersById.putIfAbsent(user.getId(), user) == null) {
+                    usersList.add(user);
+                }
+            }
+        } else {
             usersList.setAll(newUsers);
-            usersTable.setItems(usersList);
-            usersTable.refresh(); // Buộc bảng cập nhật lại
-        });
+            usersById.clear();
+            for (User user : newUsers) {
+                usersById.put(user.getId(), user);
+            }
+            lastPageUser = null;
+        }
+        appendUsers = false;
+        if (!newUsers.isEmpty()) {
+            lastPageUser = newUsers.get(newUsers.size() - 1);
+        }
+        usersTable.setItems(usersList);
+        usersTable.refresh(); // Buộc bảng cập nhật lại
+    }
+
+    // Áp một thay đổi trạng thái tại chỗ (gọi trên FX thread)
+    public void applyPresenceDelta(PresenceDelta delta) {
+        User user = usersById.get(delta.getUserId());
+        if (user == null) {
+            // User mới đăng ký sau khi tải danh sách
+            user = new User(delta.getUserId(), delta.getUsername(), delta.getPoints(), delta.getStatus());
+            usersById.put(user.getId(), user);
+            usersList.add(user);
+            return;
+        }
+        user.setStatus(delta.getStatus());
+        user.setPoints(delta.getPoints());
+        usersTable.refresh();
     }
 
-    // Cập nhật trạng thái người chơi
+    // Cập nhật trạng thái người chơi (client cũ nhận status_update dạng chữ)
     public void updateStatus(String statusUpdate) {
         if (statusUpdate == null || statusUpdate.isEmpty()) {
             return;
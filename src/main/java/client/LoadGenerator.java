@@ -0,0 +1,277 @@
+package client;
+
+import common.LogLinearHistogram;
+import common.Protocol;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bộ sinh tải không giao diện: chạy nhiều BotClient trong một JVM để thử tải và đo sức chứa của Server.
+ * Bot đăng ký, đăng nhập, xem sảnh, mời/nhận lời mời hoặc vào hàng đợi ghép trận, sút/bắt sau một
+ * khoảng suy nghĩ ngẫu nhiên, thỉnh thoảng bỏ trận hoặc ngắt kết nối. Định kỳ in histogram độ trễ
+ * theo từng loại yêu cầu (từ lúc gửi tới message trả lời đầu tiên).
+ *
+ * Chạy: java -cp ... -Dpenalty.bot.count=10000 -Dpenalty.bot.durationSec=600 client.LoadGenerator
+ *
+ * Thời gian suy nghĩ (ms) viết dạng "fixed:500", "uniform:200:3000", "exp:1500" (phân phối mũ theo trung bình)
+ * hoặc "normal:1500:400".
+ */
+public class LoadGenerator {
+
+    private final String host = System.getProperty("penalty.bot.host", "localhost");
+    private final int port = Integer.getInteger("penalty.port", 12345);
+    private final String protocol = System.getProperty("penalty.protocol", Protocol.BINARY);
+    private final int botCount = Integer.getInteger("penalty.bot.count", 100);
+    private final String prefix = System.getProperty("penalty.bot.prefix", "bot");
+    private final long rampUpMillis = TimeUnit.SECONDS.toMillis(Long.getLong("penalty.bot.rampUpSec", 10));
+    private final long durationMillis = TimeUnit.SECONDS.toMillis(Long.getLong("penalty.bot.durationSec", 60));
+    private final long reportMillis = TimeUnit.SECONDS.toMillis(Long.getLong("penalty.bot.reportSec", 10));
+    private final ThinkTime lobbyThink = ThinkTime.parse(System.getProperty("penalty.bot.lobbyThink", "uniform:1000:5000"));
+    private final ThinkTime turnThink = ThinkTime.parse(System.getProperty("penalty.bot.turnThink", "exp:1500"));
+    private final ThinkTime reconnectThink = ThinkTime.parse(System.getProperty("penalty.bot.reconnectThink", "uniform:1000:5000"));
+    private final long matchTimeoutMillis = Long.getLong("penalty.bot.matchTimeoutMs", 30000);
+    // Tỷ lệ tìm trận qua hàng đợi (phần còn lại mời trực tiếp), nhận lời mời, chơi lại
+    private final double queueRate = doubleProperty("penalty.bot.queueRate", 0.5);
+    private final double acceptRate = doubleProperty("penalty.bot.acceptRate", 0.8);
+    private final double rematchRate = doubleProperty("penalty.bot.rematchRate", 0.3);
+    // Xác suất mỗi lượt: ngắt kết nối, bỏ trận, bỏ lượt
+    private final double dropRate = doubleProperty("penalty.bot.dropRate", 0.005);
+    private final double quitRate = doubleProperty("penalty.bot.quitRate", 0.01);
+    private final double idleRate = doubleProperty("penalty.bot.idleRate", 0.01);
+
+    private volatile boolean running = true;
+    private final Queue<BotClient> bots = new ConcurrentLinkedQueue<>();
+    private final Map<String, LogLinearHistogram> latencies = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> received = new ConcurrentHashMap<>();
+    private final AtomicInteger connected = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder drops = new LongAdder();
+    // Đã nhận lời mời nhưng server không mở trận trong matchTimeoutMillis
+    private final LongAdder acceptTimeouts = new LongAdder();
+
+    // Phân phối thời gian suy nghĩ (ms)
+    static final class ThinkTime {
+        private final String kind;
+        private final double a;
+        private final double b;
+
+        private ThinkTime(String kind, double a, double b) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        static ThinkTime parse(String spec) {
+            String[] parts = spec.split(":");
+            String kind = parts[0].toLowerCase(Locale.ROOT);
+            double a = parts.length > 1 ? Double.parseDouble(parts[1]) : 0;
+            double b = parts.length > 2 ? Double.parseDouble(parts[2]) : 0;
+            switch (kind) {
+                case "fixed":
+                case "exp":
+                case "uniform":
+                case "normal":
+                    return new ThinkTime(kind, a, b);
+                default:
+                    throw new IllegalArgumentException("Phân phối không hỗ trợ: " + spec);
+            }
+        }
+
+        long sample() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double value;
+            switch (kind) {
+                case "exp":
+                    value = -a * Math.log(1 - random.nextDouble());
+                    break;
+                case "uniform":
+                    value = a + random.nextDouble() * (b - a);
+                    break;
+                case "normal":
+                    value = a + random.nextGaussian() * b;
+                    break;
+                default:
+                    value = a;
+            }
+            return Math.max(0, (long) value);
+        }
+    }
+
+    public void run() {
+        long start = System.currentTimeMillis();
+        System.out.printf("Chạy %d bot tới %s:%d (%s) trong %d giây%n", botCount, host, port, protocol,
+                durationMillis / 1000);
+        Thread ramp = Thread.ofVirtual().name("bot-ramp").start(() -> {
+            // Khởi động theo đợt mỗi 10 ms cho tới số bot đáng lẽ đã chạy tại thời điểm đó,
+            // không ngủ riêng cho từng bot (hẹn giờ ngắn cỡ micro giây không chính xác)
+            int started = 0;
+            while (started < botCount && running) {
+                long elapsed = System.currentTimeMillis() - start;
+                int due = rampUpMillis <= 0 ? botCount
+                        : (int) Math.min(botCount, (long) botCount * elapsed / rampUpMillis + 1);
+                for (; started < due; started++) {
+                    BotClient bot = new BotClient(this, prefix + started, "pw-" + prefix + started);
+                    bots.add(bot);
+                    Thread.ofVirtual().start(bot::connect);
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        });
+        long end = start + durationMillis;
+        long nextReport = start + reportMillis;
+        while (System.currentTimeMillis() < end) {
+            long wakeUp = Math.min(nextReport, end);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(1, wakeUp - System.currentTimeMillis())));
+            if (System.currentTimeMillis() >= nextReport) {
+                report(System.currentTimeMillis() - start);
+                nextReport += reportMillis;
+            }
+        }
+        running = false;
+        ramp.interrupt();
+        for (BotClient bot : bots) {
+            bot.close();
+        }
+        System.out.println("=== Kết quả cuối ===");
+        report(System.currentTimeMillis() - start);
+    }
+
+    private void report(long elapsedMillis) {
+        int inGame = 0;
+        for (BotClient bot : bots) {
+            if (bot.isInGame()) {
+                inGame++;
+            }
+        }
+        long totalReceived = 0;
+        for (LongAdder count : received.values()) {
+            totalReceived += count.sum();
+        }
+        double seconds = Math.max(1, elapsedMillis) / 1000.0;
+        System.out.printf("[%6.1fs] kết nối=%d trong trận=%d gửi=%d (%.0f/s) nhận=%d (%.0f/s) "
+                + "lượt kết nối=%d lỗi kết nối=%d ngắt=%d tự ngắt=%d nhận lời hết giờ=%d%n",
+                seconds, connected.get(), inGame, sent.sum(), sent.sum() / seconds, totalReceived,
+                totalReceived / seconds, connects.sum(), connectFailures.sum(), disconnects.sum(), drops.sum(),
+                acceptTimeouts.sum());
+        System.out.printf("  %-16s %9s %9s %9s %9s %9s %9s %9s%n", "yêu cầu", "số lần", "tb(ms)", "p50", "p90",
+                "p99", "p99.9", "max");
+        for (Map.Entry<String, LogLinearHistogram> entry : new TreeMap<>(latencies).entrySet()) {
+            LogLinearHistogram h = entry.getValue();
+            System.out.printf("  %-16s %9d %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), h.getCount(),
+                    h.getMean() / 1000.0, h.quantile(0.5) / 1000.0, h.quantile(0.9) / 1000.0,
+                    h.quantile(0.99) / 1000.0, h.quantile(0.999) / 1000.0, h.getMax() / 1000.0);
+        }
+    }
+
+    void recordLatency(String request, long nanos) {
+        latencies.computeIfAbsent(request, k -> new LogLinearHistogram()).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void onReceived(String type) {
+        received.computeIfAbsent(type, k -> new LongAdder()).increment();
+    }
+
+    void onSent() {
+        sent.increment();
+    }
+
+    void onConnected() {
+        connected.incrementAndGet();
+        connects.increment();
+    }
+
+    void onConnectFailed() {
+        connectFailures.increment();
+    }
+
+    void onDisconnected() {
+        connected.decrementAndGet();
+        disconnects.increment();
+    }
+
+    void onDropped() {
+        drops.increment();
+    }
+
+    void onAcceptTimeout() {
+        acceptTimeouts.increment();
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    String getProtocol() {
+        return protocol;
+    }
+
+    ThinkTime getLobbyThink() {
+        return lobbyThink;
+    }
+
+    ThinkTime getTurnThink() {
+        return turnThink;
+    }
+
+    ThinkTime getReconnectThink() {
+        return reconnectThink;
+    }
+
+    long getMatchTimeoutMillis() {
+        return matchTimeoutMillis;
+    }
+
+    double getQueueRate() {
+        return queueRate;
+    }
+
+    double getAcceptRate() {
+        return acceptRate;
+    }
+
+    double getRematchRate() {
+        return rematchRate;
+    }
+
+    double getDropRate() {
+        return dropRate;
+    }
+
+    double getQuitRate() {
+        return quitRate;
+    }
+
+    double getIdleRate() {
+        return idleRate;
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    public static void main(String[] args) {
+        new LoadGenerator().run();
+    }
+}
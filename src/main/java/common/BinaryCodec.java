@@ -0,0 +1,527 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codec nhị phân gọn cho Message: [opcode][nội dung có tag].
+ * Số nguyên ghi dạng varint, User/Match/MatchDetails/UserStats/UserQuery được mã hóa thủ công,
+ * không có class descriptor như Java serialization.
+ */
+public class BinaryCodec implements MessageCodec {
+
+    // Opcode = vị trí trong mảng + 1. CHỈ thêm vào cuối để không phá client cũ.
+    private static final String[] TYPES = {
+            "register", "register_success", "register_error",
+            "login", "login_success", "login_failure",
+            "logout", "logout_success",
+            "get_users", "user_list", "status_update",
+            "request_match", "match_request", "match_response",
+            "chat", "match_start", "your_turn", "goalkeeper_turn", "opponent_turn",
+            "shoot", "goalkeeper", "kick_result", "update_score", "round_result",
+            "match_result", "match_end", "play_again_request", "play_again_response", "rematch_declined",
+            "quit_game", "return_to_main", "timeout", "opponent_timeout", "error",
+            "get_leaderboard", "leaderboard", "get_match_history", "match_history",
+            "get_user_matches", "user_matches", "get_match_details", "match_details",
+            "presence_delta", "presence_sync", "get_rank", "rank",
+            "queue_join", "queue_leave", "queue_status"
+    };
+    private static final Map<String, Integer> OPCODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            OPCODES.put(TYPES[i], i + 1);
+        }
+    }
+
+    // Opcode 0: loại message chưa có trong bảng, tên được ghi kèm
+    private static final int OP_CUSTOM = 0;
+
+    private static final int T_NULL = 0;
+    private static final int T_INT = 1;
+    private static final int T_FALSE = 2;
+    private static final int T_TRUE = 3;
+    private static final int T_STRING = 4;
+    private static final int T_STRING_ARRAY = 5;
+    private static final int T_INT_ARRAY = 6;
+    private static final int T_OBJECT_ARRAY = 7;
+    private static final int T_LIST = 8;
+    private static final int T_USER = 9;
+    private static final int T_MATCH = 10;
+    private static final int T_MATCH_DETAILS = 11;
+    private static final int T_USER_STATS = 12;
+    private static final int T_KICK_RESULT = 13;
+    private static final int T_LONG = 14;
+    private static final int T_USER_QUERY = 15;
+    private static final int T_PRESENCE_DELTA = 16;
+    // Phần đuôi tùy chọn sau nội dung: ngữ cảnh trace (id, thời gian xử lý ở server)
+    private static final int T_TRACE = 17;
+    // Kiểu không có encoder riêng: nhúng Java serialization
+    private static final int T_JAVA = 127;
+
+    // Hướng sút/chặn trong kick_result, mã 0xFF = chuỗi tự do
+    private static final String[] DIRECTIONS = {
+            "Left", "Middle", "Right", "Left High", "Left Low", "Right High", "Right Low"
+    };
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        Writer out = new Writer();
+        Integer opcode = OPCODES.get(message.getType());
+        if (opcode == null) {
+            out.writeVarInt(OP_CUSTOM);
+            out.writeString(message.getType());
+        } else {
+            out.writeVarInt(opcode);
+        }
+        if (!"kick_result".equals(message.getType()) || !writeKickResult(out, message.getContent())) {
+            writeValue(out, message.getContent());
+        }
+        TraceContext trace = message.getTrace();
+        if (trace != null) {
+            out.writeByte(T_TRACE);
+            out.writeVarLong(trace.getTraceId());
+            out.writeVarLong(trace.getServerNanos());
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] data, int offset, int length) throws IOException {
+        Reader in = new Reader(data, offset, length);
+        int opcode = in.readVarInt();
+        String type;
+        if (opcode == OP_CUSTOM) {
+            type = in.readString();
+        } else if (opcode > 0 && opcode <= TYPES.length) {
+            type = TYPES[opcode - 1];
+        } else {
+            throw new StreamCorruptedException("Opcode không hợp lệ: " + opcode);
+        }
+        Object content = readValue(in);
+        TraceContext trace = null;
+        if (in.remaining() > 0) {
+            int tag = in.readByte();
+            if (tag != T_TRACE) {
+                throw new StreamCorruptedException("Tag không hợp lệ sau message " + type + ": " + tag);
+            }
+            trace = new TraceContext(in.readVarLong(), in.readVarLong());
+        }
+        if (in.remaining() != 0) {
+            throw new StreamCorruptedException("Thừa " + in.remaining() + " byte sau message " + type);
+        }
+        return new Message(type, content, trace);
+    }
+
+    // "win-Left-Right" -> [T_KICK_RESULT][0/1][mã hướng sút][mã hướng chặn]
+    private boolean writeKickResult(Writer out, Object content) {
+        if (!(content instanceof String)) {
+            return false;
+        }
+        String[] parts = ((String) content).split("-");
+        if (parts.length != 3 || !(parts[0].equals("win") || parts[0].equals("lose"))) {
+            return false;
+        }
+        out.writeByte(T_KICK_RESULT);
+        out.writeByte(parts[0].equals("win") ? 1 : 0);
+        writeDirection(out, parts[1]);
+        writeDirection(out, parts[2]);
+        return true;
+    }
+
+    private void writeDirection(Writer out, String direction) {
+        int code = Arrays.asList(DIRECTIONS).indexOf(direction);
+        if (code >= 0) {
+            out.writeByte(code);
+        } else {
+            out.writeByte(0xFF);
+            out.writeString(direction);
+        }
+    }
+
+    private String readDirection(Reader in) throws IOException {
+        int code = in.readByte();
+        if (code == 0xFF) {
+            return in.readString();
+        }
+        if (code >= DIRECTIONS.length) {
+            throw new StreamCorruptedException("Mã hướng không hợp lệ: " + code);
+        }
+        return DIRECTIONS[code];
+    }
+
+    private void writeValue(Writer out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(T_NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(T_INT);
+            out.writeVarInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeVarLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? T_TRUE : T_FALSE);
+        } else if (value instanceof String) {
+            out.writeByte(T_STRING);
+            out.writeString((String) value);
+        } else if (value instanceof String[]) {
+            String[] array = (String[]) value;
+            out.writeByte(T_STRING_ARRAY);
+            out.writeVarInt(array.length);
+            for (String s : array) {
+                out.writeString(s);
+            }
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            out.writeByte(T_INT_ARRAY);
+            out.writeVarInt(array.length);
+            for (int i : array) {
+                out.writeVarInt(i);
+            }
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.writeByte(T_OBJECT_ARRAY);
+            out.writeVarInt(array.length);
+            for (Object o : array) {
+                writeValue(out, o);
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(T_LIST);
+            out.writeVarInt(list.size());
+            for (Object o : list) {
+                writeValue(out, o);
+            }
+        } else if (value instanceof User) {
+            out.writeByte(T_USER);
+            writeUser(out, (User) value);
+        } else if (value instanceof UserStats) {
+            UserStats stats = (UserStats) value;
+            out.writeByte(T_USER_STATS);
+            writeUser(out, stats.getUser());
+            out.writeVarInt(stats.getGoalsScored());
+            out.writeVarInt(stats.getGoalsSaved());
+        } else if (value instanceof UserQuery) {
+            UserQuery query = (UserQuery) value;
+            out.writeByte(T_USER_QUERY);
+            out.writeString(query.getPrefix());
+            out.writeByte(query.isOnlineOnly() ? 1 : 0);
+            out.writeVarInt(query.getOffset());
+            out.writeVarInt(query.getLimit());
+            out.writeString(query.getAfterUsername());
+            out.writeVarInt(query.getAfterId());
+        } else if (value instanceof PresenceDelta) {
+            PresenceDelta delta = (PresenceDelta) value;
+            out.writeByte(T_PRESENCE_DELTA);
+            out.writeVarInt(delta.getUserId());
+            out.writeString(delta.getUsername());
+            out.writeVarInt(delta.getPoints());
+            out.writeString(delta.getStatus());
+            out.writeVarLong(delta.getVersion());
+        } else if (value instanceof Match) {
+            out.writeByte(T_MATCH);
+            writeMatch(out, (Match) value);
+        } else if (value instanceof MatchDetails) {
+            out.writeByte(T_MATCH_DETAILS);
+            writeMatchDetails(out, (MatchDetails) value);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(value);
+            }
+            out.writeByte(T_JAVA);
+            out.writeBytes(bytes.toByteArray());
+        }
+    }
+
+    private Object readValue(Reader in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case T_NULL:
+                return null;
+            case T_INT:
+                return in.readVarInt();
+            case T_LONG:
+                return in.readVarLong();
+            case T_FALSE:
+                return Boolean.FALSE;
+            case T_TRUE:
+                return Boolean.TRUE;
+            case T_STRING:
+                return in.readString();
+            case T_STRING_ARRAY: {
+                String[] array = new String[in.readLength()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readString();
+                }
+                return array;
+            }
+            case T_INT_ARRAY: {
+                int[] array = new int[in.readLength()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readVarInt();
+                }
+                return array;
+            }
+            case T_OBJECT_ARRAY: {
+                Object[] array = new Object[in.readLength()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in);
+                }
+                return array;
+            }
+            case T_LIST: {
+                int size = in.readLength();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case T_USER:
+                return readUser(in);
+            case T_USER_STATS:
+                return new UserStats(readUser(in), in.readVarInt(), in.readVarInt());
+            case T_USER_QUERY:
+                return new UserQuery(in.readString(), in.readByte() == 1, in.readVarInt(), in.readVarInt(),
+                        in.readString(), in.readVarInt());
+            case T_PRESENCE_DELTA:
+                return new PresenceDelta(in.readVarInt(), in.readString(), in.readVarInt(), in.readString(),
+                        in.readVarLong());
+            case T_MATCH:
+                return readMatch(in);
+            case T_MATCH_DETAILS:
+                return readMatchDetails(in);
+            case T_KICK_RESULT: {
+                String result = in.readByte() == 1 ? "win" : "lose";
+                return result + "-" + readDirection(in) + "-" + readDirection(in);
+            }
+            case T_JAVA: {
+                byte[] bytes = in.readBytes();
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Không giải mã được nội dung", e);
+                }
+            }
+            default:
+                throw new StreamCorruptedException("Tag không hợp lệ: " + tag);
+        }
+    }
+
+    private void writeUser(Writer out, User user) {
+        out.writeVarInt(user.getId());
+        out.writeString(user.getUsername());
+        out.writeVarInt(user.getPoints());
+        out.writeString(user.getStatus());
+    }
+
+    private User readUser(Reader in) throws IOException {
+        return new User(in.readVarInt(), in.readString(), in.readVarInt(), in.readString());
+    }
+
+    private void writeMatch(Writer out, Match match) {
+        out.writeVarInt(match.getId());
+        out.writeVarInt(match.getPlayer1Id());
+        out.writeVarInt(match.getPlayer2Id());
+        out.writeNullableInt(match.getWinnerId());
+        out.writeString(match.getPlayer1Name());
+        out.writeString(match.getPlayer2Name());
+        out.writeTimestamp(match.getTime());
+        out.writeString(match.getEndReason());
+    }
+
+    private Match readMatch(Reader in) throws IOException {
+        return new Match(in.readVarInt(), in.readVarInt(), in.readVarInt(), in.readNullableInt(),
+                in.readString(), in.readString(), in.readTimestamp(), in.readString());
+    }
+
+    private void writeMatchDetails(Writer out, MatchDetails details) {
+        out.writeVarInt(details.getId());
+        out.writeVarInt(details.getMatchId());
+        out.writeVarInt(details.getRound());
+        out.writeVarInt(details.getShooterId());
+        out.writeVarInt(details.getGoalkeeperId());
+        out.writeString(details.getShooterDirection());
+        out.writeString(details.getGoalkeeperDirection());
+        out.writeString(details.getResult());
+        out.writeTimestamp(details.getTime());
+    }
+
+    private MatchDetails readMatchDetails(Reader in) throws IOException {
+        return new MatchDetails(in.readVarInt(), in.readVarInt(), in.readVarInt(), in.readVarInt(),
+                in.readVarInt(), in.readString(), in.readString(), in.readString(), in.readTimestamp());
+    }
+
+    // Bộ đệm ghi tự mở rộng
+    private static final class Writer {
+        private byte[] buf = new byte[64];
+        private int pos;
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        // Zigzag varint: số âm nhỏ cũng chỉ tốn ít byte
+        void writeVarInt(int value) {
+            writeVarLong(value);
+        }
+
+        void writeVarLong(long value) {
+            long v = (value << 1) ^ (value >> 63);
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void writeNullableInt(Integer value) {
+            if (value == null) {
+                writeByte(0);
+            } else {
+                writeByte(1);
+                writeVarInt(value);
+            }
+        }
+
+        // Độ dài + 1, 0 nghĩa là null
+        void writeString(String s) {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void writeTimestamp(Timestamp time) {
+            if (time == null) {
+                writeByte(0);
+            } else {
+                writeByte(1);
+                writeVarLong(time.getTime());
+                writeVarInt(time.getNanos() % 1_000_000);
+            }
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int pos;
+        private final int limit;
+
+        Reader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.pos = offset;
+            this.limit = offset + length;
+        }
+
+        int remaining() {
+            return limit - pos;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= limit) {
+                throw new EOFException("Frame bị cắt cụt");
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        int readVarInt() throws IOException {
+            long v = readVarLong();
+            if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+                throw new StreamCorruptedException("Varint vượt quá int");
+            }
+            return (int) v;
+        }
+
+        long readVarLong() throws IOException {
+            long raw = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                raw |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (raw >>> 1) ^ -(raw & 1);
+                }
+            }
+            throw new StreamCorruptedException("Varint quá dài");
+        }
+
+        // Độ dài mảng/danh sách, không được vượt quá số byte còn lại
+        int readLength() throws IOException {
+            int length = readVarInt();
+            if (length < 0 || length > remaining()) {
+                throw new StreamCorruptedException("Độ dài không hợp lệ: " + length);
+            }
+            return length;
+        }
+
+        Integer readNullableInt() throws IOException {
+            return readByte() == 0 ? null : readVarInt();
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (length > remaining()) {
+                throw new EOFException("Chuỗi bị cắt cụt");
+            }
+            String s = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readLength();
+            byte[] bytes = Arrays.copyOfRange(data, pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+
+        Timestamp readTimestamp() throws IOException {
+            if (readByte() == 0) {
+                return null;
+            }
+            Timestamp time = new Timestamp(readVarLong());
+            time.setNanos(time.getNanos() + readVarInt());
+            return time;
+        }
+    }
+}
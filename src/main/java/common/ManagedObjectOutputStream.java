@@ -0,0 +1,121 @@
+package common;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * ObjectOutputStream tự gọi reset() sau một số message hoặc một lượng byte nhất định.
+ * Không reset thì handle table giữ mọi object đã gửi suốt phiên kết nối (rò rỉ bộ nhớ),
+ * và object bị sửa rồi gửi lại chỉ được ghi thành back-reference tới bản cũ.
+ */
+public final class ManagedObjectOutputStream extends ObjectOutputStream {
+
+    public static final int DEFAULT_RESET_MESSAGES = Integer.getInteger("penalty.serialization.resetMessages", 32);
+    public static final long DEFAULT_RESET_BYTES = Long.getLong("penalty.serialization.resetBytes", 256 * 1024);
+
+    private final CountingOutputStream counter;
+    private final int resetMessages;
+    private final long resetBytes;
+    private int messagesSinceReset;
+    private long bytesAtReset;
+    // Số object mới từ lần reset trước (gần đúng kích thước handle table); chỉ thread ghi tăng, metrics đọc
+    private volatile int handles;
+    private long resets;
+
+    public ManagedObjectOutputStream(OutputStream out) throws IOException {
+        this(out, true, DEFAULT_RESET_MESSAGES, DEFAULT_RESET_BYTES);
+    }
+
+    // writeHeader = false khi 4 byte header đã được gửi riêng từ trước
+    public ManagedObjectOutputStream(OutputStream out, boolean writeHeader, int resetMessages, long resetBytes)
+            throws IOException {
+        this(new CountingOutputStream(out, writeHeader ? 0 : 4), resetMessages, resetBytes);
+    }
+
+    private ManagedObjectOutputStream(CountingOutputStream counter, int resetMessages, long resetBytes)
+            throws IOException {
+        super(counter);
+        this.counter = counter;
+        this.resetMessages = Math.max(1, resetMessages);
+        this.resetBytes = Math.max(1, resetBytes);
+        enableReplaceObject(true);
+    }
+
+    // Ghi một message, reset nếu vượt ngưỡng rồi flush
+    public void writeMessage(Object message) throws IOException {
+        writeMessage(message, true);
+    }
+
+    // flush = false: để người gọi gom nhiều message rồi flush một lần
+    public void writeMessage(Object message, boolean flush) throws IOException {
+        writeObject(message);
+        messagesSinceReset++;
+        if (messagesSinceReset >= resetMessages || counter.count - bytesAtReset >= resetBytes) {
+            reset();
+        }
+        if (flush) {
+            flush();
+        }
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        messagesSinceReset = 0;
+        handles = 0;
+        bytesAtReset = counter.count;
+        resets++;
+    }
+
+    // Chỉ được gọi cho object chưa có trong handle table
+    @Override
+    protected Object replaceObject(Object obj) {
+        handles++;
+        return obj;
+    }
+
+    public int getHandleCount() {
+        return handles;
+    }
+
+    public long getResetCount() {
+        return resets;
+    }
+
+    public long getBytesWritten() {
+        return counter.count;
+    }
+
+    // Đếm số byte đã ghi, có thể bỏ qua vài byte đầu (header đã gửi)
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+        private int skip;
+
+        CountingOutputStream(OutputStream out, int skip) {
+            super(out);
+            this.skip = skip;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (skip > 0) {
+                skip--;
+                return;
+            }
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int skipped = Math.min(skip, len);
+            skip -= skipped;
+            if (len > skipped) {
+                out.write(b, off + skipped, len - skipped);
+                count += len - skipped;
+            }
+        }
+    }
+}
@@ -3,14 +3,24 @@ package common;
 import java.io.Serializable;
 
 public class Message implements Serializable {
+    // Giữ nguyên giá trị tính từ bản đầu tiên để client cũ (ObjectStream) vẫn đọc được khi thêm trường
+    private static final long serialVersionUID = 1302092898156746403L;
+
     private String type;
     private Object content;
+    // Ngữ cảnh trace khi message được lấy mẫu, thường là null
+    private TraceContext trace;
 
     public Message(String type, Object content) {
         this.type = type;
         this.content = content;
     }
 
+    public Message(String type, Object content, TraceContext trace) {
+        this(type, content);
+        this.trace = trace;
+    }
+
     // Getters
     public String getType() {
         return type;
@@ -19,4 +29,8 @@ public class Message implements Serializable {
     public Object getContent() {
         return content;
     }
+
+    public TraceContext getTrace() {
+        return trace;
+    }
 }
@@ -0,0 +1,14 @@
+package common;
+
+import java.io.IOException;
+
+/**
+ * Mã hóa / giải mã một Message thành payload của một frame.
+ * Độ dài frame do tầng truyền tải tự ghi (xem Protocol).
+ */
+public interface MessageCodec {
+
+    byte[] encode(Message message) throws IOException;
+
+    Message decode(byte[] data, int offset, int length) throws IOException;
+}
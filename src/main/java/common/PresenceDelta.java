@@ -0,0 +1,42 @@
+package common;
+
+import java.io.Serializable;
+
+// Một thay đổi trạng thái của user; version tăng dần trên toàn server để client biết thứ tự và nối tiếp
+public class PresenceDelta implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int userId;
+    private String username;
+    private int points;
+    private String status;
+    private long version;
+
+    public PresenceDelta(int userId, String username, int points, String status, long version) {
+        this.userId = userId;
+        this.username = username;
+        this.points = points;
+        this.status = status;
+        this.version = version;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getPoints() {
+        return points;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
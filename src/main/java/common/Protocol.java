@@ -0,0 +1,76 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Hằng số và hàm tiện ích cho việc bắt tay giao thức lúc kết nối.
+ *
+ * Server luôn gửi 4 byte header của ObjectOutputStream trước, nên client cũ vẫn chạy được.
+ * Client cũ trả lời bằng header của chính nó; client mới trả lời bằng một magic,
+ * sau đó hai bên trao đổi các frame [int độ dài][payload].
+ */
+public final class Protocol {
+
+    // STREAM_MAGIC + STREAM_VERSION của ObjectOutputStream
+    public static final int STREAM_HEADER = 0xACED0005;
+    // "PSF1": frame chứa Message serialize bằng Java
+    public static final int MAGIC_FRAMED = 0x50534631;
+    // "PSB1": frame chứa Message mã hóa bằng BinaryCodec
+    public static final int MAGIC_BINARY = 0x50534231;
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    public static final String LEGACY = "legacy";
+    public static final String FRAMED = "framed";
+    public static final String BINARY = "binary";
+
+    private Protocol() {
+    }
+
+    // Trả về codec tương ứng với magic, hoặc null nếu không hỗ trợ
+    public static MessageCodec codecFor(int magic) {
+        switch (magic) {
+            case MAGIC_FRAMED:
+                return new SerializedCodec();
+            case MAGIC_BINARY:
+                return new BinaryCodec();
+            default:
+                return null;
+        }
+    }
+
+    // Magic mà client gửi cho tên giao thức đã cấu hình (0 = giao thức cũ)
+    public static int magicFor(String protocol) {
+        switch (protocol) {
+            case FRAMED:
+                return MAGIC_FRAMED;
+            case BINARY:
+                return MAGIC_BINARY;
+            case LEGACY:
+                return 0;
+            default:
+                throw new IllegalArgumentException("Giao thức không hỗ trợ: " + protocol);
+        }
+    }
+
+    public static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    public static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        checkFrameLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    public static void checkFrameLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Độ dài frame không hợp lệ: " + length);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Mỗi frame là một Message được serialize độc lập bằng Java serialization.
+ * Không giữ handle table giữa các frame nên không bị rò rỉ bộ nhớ.
+ */
+public class SerializedCodec implements MessageCodec {
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] data, int offset, int length) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length))) {
+            Object obj = in.readObject();
+            if (!(obj instanceof Message)) {
+                throw new StreamCorruptedException("Frame không chứa Message");
+            }
+            return (Message) obj;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Không giải mã được frame", e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package common;
+
+import java.io.Serializable;
+
+/**
+ * Ngữ cảnh trace đi kèm Message được lấy mẫu (xem Tracer).
+ * Đồng hồ của client và server không so được với nhau, nên chỉ truyền id của trace và, trong
+ * message trả lời, thời gian server đã xử lý; mỗi tiến trình tự đo các mốc của mình bằng nanoTime.
+ */
+public final class TraceContext implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long traceId;
+    // Thời gian từ lúc server nhận yêu cầu tới lúc gửi trả lời (nano giây); 0 trong yêu cầu
+    private final long serverNanos;
+    // nanoTime của mốc đầu tiên trong tiến trình hiện tại, 0 = chưa có mốc nào
+    private transient long origin;
+
+    public TraceContext(long traceId, long serverNanos) {
+        this.traceId = traceId;
+        this.serverNanos = serverNanos;
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public long getServerNanos() {
+        return serverNanos;
+    }
+
+    // Thời gian kể từ mốc đầu tiên trong tiến trình này; mốc đầu tiên được lấy ngay lúc gọi
+    long elapsed(long now) {
+        if (origin == 0) {
+            origin = now;
+        }
+        return now - origin;
+    }
+}
@@ -0,0 +1,139 @@
+package common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Đọc các file do Tracer ghi (của client, bot và server) và in percentile độ trễ theo từng chặng.
+ *
+ * Mỗi chặng được đo từ mốc liền trước của cùng trace trong cùng tiến trình, nên không cần đồng hồ
+ * của các máy khớp nhau. Với mốc cuối ở client có kèm server_us, cột "mạng" là tổng thời gian phía
+ * client trừ đi thời gian server đã báo, tức phần nằm trên đường truyền (hai chiều).
+ *
+ * Dùng: java common.TraceReport trace-client.log trace-server.log ...
+ */
+public final class TraceReport {
+
+    // Một mốc đọc từ file
+    private static final class Mark {
+        final String stage;
+        final long atMicros;
+        final long serverMicros;
+
+        Mark(String stage, long atMicros, long serverMicros) {
+            this.stage = stage;
+            this.atMicros = atMicros;
+            this.serverMicros = serverMicros;
+        }
+    }
+
+    // Các giá trị (micro giây) của một cột, giữ thứ tự xuất hiện của chặng
+    private final Map<String, List<Long>> stages = new LinkedHashMap<>();
+    private final Map<String, List<Long>> totals = new LinkedHashMap<>();
+    private final List<Long> network = new ArrayList<>();
+
+    private TraceReport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Dùng: java common.TraceReport <file trace> ...");
+            System.exit(1);
+        }
+        // Khóa là trace + pid: mốc của các tiến trình khác nhau không so với nhau
+        Map<String, List<Mark>> traces = new HashMap<>();
+        for (String file : args) {
+            try (BufferedReader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    Map<String, String> fields = parse(line);
+                    String trace = fields.get("trace");
+                    String stage = fields.get("stage");
+                    String at = fields.get("at_us");
+                    if (trace == null || stage == null || at == null) {
+                        continue;
+                    }
+                    long server = Long.parseLong(fields.getOrDefault("server_us", "0"));
+                    traces.computeIfAbsent(trace + "/" + fields.get("pid"), k -> new ArrayList<>())
+                            .add(new Mark(stage, Long.parseLong(at), server));
+                }
+            }
+        }
+        TraceReport report = new TraceReport();
+        for (List<Mark> marks : traces.values()) {
+            report.add(marks);
+        }
+        report.print(traces.size());
+    }
+
+    private void add(List<Mark> marks) {
+        marks.sort((a, b) -> Long.compare(a.atMicros, b.atMicros));
+        Mark previous = null;
+        for (Mark mark : marks) {
+            String name = previous == null ? mark.stage : previous.stage + " -> " + mark.stage;
+            if (previous != null) {
+                stages.computeIfAbsent(name, k -> new ArrayList<>()).add(mark.atMicros - previous.atMicros);
+                totals.computeIfAbsent(name, k -> new ArrayList<>()).add(mark.atMicros);
+            }
+            previous = mark;
+        }
+        Mark last = marks.get(marks.size() - 1);
+        if (last.serverMicros > 0 && last.atMicros >= last.serverMicros) {
+            network.add(last.atMicros - last.serverMicros);
+        }
+    }
+
+    private void print(int traceCount) {
+        System.out.println("Số trace (theo tiến trình): " + traceCount);
+        System.out.printf("%-40s %7s %9s %9s %9s %9s %12s%n",
+                "chặng (µs)", "n", "p50", "p90", "p99", "max", "p50 tích lũy");
+        for (Map.Entry<String, List<Long>> entry : stages.entrySet()) {
+            long[] values = sorted(entry.getValue());
+            long[] cumulative = sorted(totals.get(entry.getKey()));
+            System.out.printf("%-40s %7d %9d %9d %9d %9d %12d%n", entry.getKey(), values.length,
+                    percentile(values, 0.5), percentile(values, 0.9), percentile(values, 0.99),
+                    values[values.length - 1], percentile(cumulative, 0.5));
+        }
+        if (!network.isEmpty()) {
+            long[] values = sorted(network);
+            System.out.printf("%-40s %7d %9d %9d %9d %9d%n", "mạng (client - server_us)", values.length,
+                    percentile(values, 0.5), percentile(values, 0.9), percentile(values, 0.99),
+                    values[values.length - 1]);
+        }
+    }
+
+    private static long[] sorted(List<Long> values) {
+        long[] result = new long[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    // Percentile theo thứ hạng gần nhất
+    private static long percentile(long[] sorted, double q) {
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static Map<String, String> parse(String line) {
+        Map<String, String> fields = new HashMap<>();
+        for (String part : line.split(" ")) {
+            int eq = part.indexOf('=');
+            if (eq > 0) {
+                fields.put(part.substring(0, eq), part.substring(eq + 1));
+            }
+        }
+        return fields;
+    }
+}
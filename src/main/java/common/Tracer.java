@@ -0,0 +1,154 @@
+package common;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Trace nhẹ cho đường đi của một cú sút: client lấy mẫu một phần các message shoot/goalkeeper
+ * (penalty.trace.sampleRate, mặc định 0 = tắt), gắn TraceContext vào Message, và mỗi tiến trình
+ * ghi các mốc (client.send, server.receive, room.enter, room.run, server.reply, db.written,
+ * client.receive, client.render) của trace đó ra file cục bộ. Trace kết thúc ở trả lời trực tiếp của
+ * yêu cầu: opponent_turn cho cú sút, kick_result cho lệnh bắt (mốc db.written khi batch chứa lượt đó
+ * đã commit).
+ *
+ * Mỗi dòng của file là một mốc: thời điểm tính bằng micro giây kể từ mốc đầu tiên của trace trong
+ * cùng tiến trình (nanoTime, đơn điệu). Server chỉ ghi mốc cho message client đã lấy mẫu, nên không
+ * cần cấu hình gì thêm. Ghi file do một thread daemon làm; thread gọi chỉ xếp bản ghi vào hàng đợi.
+ * Xem TraceReport để tính percentile theo từng chặng.
+ */
+public final class Tracer {
+
+    private static final double SAMPLE_RATE = Double.parseDouble(System.getProperty("penalty.trace.sampleRate", "0"));
+    private static final long PID = ProcessHandle.current().pid();
+    // Trace do tiến trình này bắt đầu, để trả lời từ server được đo theo mốc gốc của nó
+    private static final Map<Long, TraceContext> started = new ConcurrentHashMap<>();
+    private static final int MAX_STARTED = 4096;
+
+    // Một mốc chờ ghi
+    private static final class Span {
+        final long wallMillis = System.currentTimeMillis();
+        final long traceId;
+        final String stage;
+        final long elapsedNanos;
+        final long serverNanos;
+
+        Span(long traceId, String stage, long elapsedNanos, long serverNanos) {
+            this.traceId = traceId;
+            this.stage = stage;
+            this.elapsedNanos = elapsedNanos;
+            this.serverNanos = serverNanos;
+        }
+    }
+
+    // Chỉ khởi tạo (mở file, chạy thread ghi) khi có mốc đầu tiên
+    private static final class Output {
+        static final Queue<Span> queue = new ConcurrentLinkedQueue<>();
+        static final Thread thread;
+        static volatile boolean closing;
+
+        static {
+            thread = new Thread(Output::run, "trace-writer");
+            thread.setDaemon(true);
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                closing = true;
+                LockSupport.unpark(thread);
+                try {
+                    thread.join(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "trace-flush"));
+        }
+
+        private static void run() {
+            String file = System.getProperty("penalty.trace.file", "trace-" + PID + ".log");
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                    StandardCharsets.UTF_8))) {
+                StringBuilder line = new StringBuilder(128);
+                while (true) {
+                    boolean wrote = false;
+                    Span span;
+                    while ((span = queue.poll()) != null) {
+                        line.setLength(0);
+                        line.append("wall=").append(span.wallMillis)
+                                .append(" trace=").append(Long.toHexString(span.traceId))
+                                .append(" pid=").append(PID)
+                                .append(" stage=").append(span.stage)
+                                .append(" at_us=").append(TimeUnit.NANOSECONDS.toMicros(span.elapsedNanos));
+                        if (span.serverNanos > 0) {
+                            line.append(" server_us=").append(TimeUnit.NANOSECONDS.toMicros(span.serverNanos));
+                        }
+                        out.append(line).append('\n');
+                        wrote = true;
+                    }
+                    if (wrote) {
+                        out.flush();
+                    } else if (closing) {
+                        return;
+                    } else {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Không ghi được file trace " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private Tracer() {
+    }
+
+    // Bắt đầu một trace mới theo tỷ lệ lấy mẫu; null nếu không được chọn
+    public static TraceContext sample() {
+        if (SAMPLE_RATE <= 0 || ThreadLocalRandom.current().nextDouble() >= SAMPLE_RATE) {
+            return null;
+        }
+        TraceContext trace = new TraceContext(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 0);
+        trace.elapsed(System.nanoTime());
+        if (started.size() >= MAX_STARTED) {
+            // Trace không bao giờ kết thúc (mất kết nối, bỏ trận) không được giữ mãi
+            started.clear();
+        }
+        started.put(trace.getTraceId(), trace);
+        return trace;
+    }
+
+    // Ghi một mốc của trace; không làm gì nếu message không được lấy mẫu
+    public static void mark(TraceContext trace, String stage) {
+        if (trace == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        TraceContext local = started.getOrDefault(trace.getTraceId(), trace);
+        Output.queue.add(new Span(trace.getTraceId(), stage, local.elapsed(now), trace.getServerNanos()));
+    }
+
+    // Mốc cuối của trace do tiến trình này bắt đầu
+    public static void finish(TraceContext trace, String stage) {
+        if (trace == null) {
+            return;
+        }
+        mark(trace, stage);
+        started.remove(trace.getTraceId());
+    }
+
+    // Ngữ cảnh gắn vào message trả lời: cùng id, kèm thời gian đã xử lý ở tiến trình này
+    public static TraceContext reply(TraceContext trace) {
+        if (trace == null) {
+            return null;
+        }
+        return new TraceContext(trace.getTraceId(), trace.elapsed(System.nanoTime()));
+    }
+}
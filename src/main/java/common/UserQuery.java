@@ -0,0 +1,59 @@
+package common;
+
+import java.io.Serializable;
+
+// Tham số cho get_users: lọc theo tiền tố username, chỉ người online, và phân trang
+public class UserQuery implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String prefix;
+    private boolean onlineOnly;
+    private int offset;
+    private int limit;
+    // Con trỏ trang: trang bắt đầu ngay sau user này theo thứ tự username (null = từ đầu).
+    // Lấy trang sau bằng con trỏ thì server không phải bỏ qua offset user như khi dùng offset
+    private String afterUsername;
+    private int afterId;
+
+    public UserQuery(String prefix, boolean onlineOnly, int offset, int limit) {
+        this(prefix, onlineOnly, offset, limit, null, 0);
+    }
+
+    public UserQuery(String prefix, boolean onlineOnly, int offset, int limit, String afterUsername, int afterId) {
+        this.prefix = prefix;
+        this.onlineOnly = onlineOnly;
+        this.offset = offset;
+        this.limit = limit;
+        this.afterUsername = afterUsername;
+        this.afterId = afterId;
+    }
+
+    // Trang tiếp theo, bắt đầu sau user cuối cùng của trang trước
+    public UserQuery after(User last) {
+        return new UserQuery(prefix, onlineOnly, 0, limit, last.getUsername(), last.getId());
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public boolean isOnlineOnly() {
+        return onlineOnly;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public String getAfterUsername() {
+        return afterUsername;
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+}
@@ -0,0 +1,36 @@
+package server;
+
+import common.Message;
+import common.MessageCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Message gửi cho nhiều client: mỗi loại codec chỉ mã hóa một lần, các kết nối dùng chung frame
+final class Broadcast {
+    private final Message message;
+    private final ConcurrentHashMap<Class<?>, byte[]> frames = new ConcurrentHashMap<>(4);
+
+    Broadcast(Message message) {
+        this.message = message;
+    }
+
+    Message getMessage() {
+        return message;
+    }
+
+    // Frame [int độ dài][payload] đã mã hóa; dùng chung nên người nhận không được sửa mảng
+    byte[] frameFor(MessageCodec codec) throws IOException {
+        byte[] frame = frames.get(codec.getClass());
+        if (frame == null) {
+            byte[] payload = codec.encode(message);
+            frame = ByteBuffer.allocate(4 + payload.length).putInt(payload.length).put(payload).array();
+            byte[] existing = frames.putIfAbsent(codec.getClass(), frame);
+            if (existing != null) {
+                frame = existing;
+            }
+        }
+        return frame;
+    }
+}
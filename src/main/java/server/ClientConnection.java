@@ -0,0 +1,35 @@
+package server;
+
+import common.Message;
+import java.io.IOException;
+
+// Kênh truyền tải của một client, tách khỏi ClientHandler để dùng chung cho cả blocking và NIO
+interface ClientConnection {
+
+    void send(Message message) throws IOException;
+
+    // Đưa broadcast vào hàng đợi gửi; false nếu hàng đợi đã đầy (client chậm)
+    default boolean sendBroadcast(Broadcast broadcast) throws IOException {
+        send(broadcast.getMessage());
+        return true;
+    }
+
+    boolean isOpen();
+
+    void close() throws IOException;
+
+    // Đóng ngay, bỏ dữ liệu chưa gửi (dùng với client chậm)
+    default void abort() throws IOException {
+        close();
+    }
+
+    // Client cũ dùng ObjectStream thuần: không hiểu các message mới như presence_delta
+    default boolean isLegacy() {
+        return false;
+    }
+
+    // Số object đang giữ trong handle table của Java serialization, 0 nếu không dùng
+    default int getHandleTableSize() {
+        return 0;
+    }
+}
@@ -4,80 +4,173 @@ import common.Match;
 import common.MatchDetails;
 import common.Message;
 import common.User;
+import common.UserQuery;
 import common.Pair;
+import common.Tracer;
 
 import java.io.*;
 import java.net.Socket;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClientHandler implements Runnable {
-    private Socket socket;
+    private ClientConnection connection;
+    private StreamConnection stream; // null khi chạy trên NIO
+    private final RemoteConnection remote; // khác null khi đại diện cho người chơi ở node khác
     private Server server;
     private DatabaseManager dbManager;
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
     private User user;
-    private GameRoom gameRoom;
+    // Gán/xóa từ hộp thư của GameRoom, đọc từ thread đọc của client
+    private volatile GameRoom gameRoom;
+    // Node đang giữ phòng chơi của client này, khi phòng nằm ở node khác
+    private volatile String remoteRoomNode;
+    // Giữ chỗ từ lúc bắt đầu tạo phòng (trước khi ghi DB) đến khi rời phòng; chỉ lấy bằng CAS
+    private final AtomicBoolean reserved = new AtomicBoolean();
     private volatile boolean isRunning = true;
+    // Thời gian xử lý theo loại message và số kết nối đang mở (không tính đại diện của node khác)
+    private final Metrics.Family<Metrics.Histogram> messageTimes;
+    private final Metrics.Gauge openConnections;
 
     public ClientHandler(Socket socket, Server server, DatabaseManager dbManager) {
-        this.socket = socket;
+        this(new StreamConnection(socket, server.getConfig(), server.getOutboundWriters()), server, dbManager);
+    }
+
+    ClientHandler(ClientConnection connection, Server server, DatabaseManager dbManager) {
+        this.connection = connection;
+        this.stream = connection instanceof StreamConnection ? (StreamConnection) connection : null;
+        this.remote = connection instanceof RemoteConnection ? (RemoteConnection) connection : null;
         this.server = server;
         this.dbManager = dbManager;
-        try {
-            // Đặt ObjectOutputStream trước ObjectInputStream để tránh deadlock
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush(); // Đảm bảo ObjectOutputStream được khởi tạo trước
-            in = new ObjectInputStream(socket.getInputStream());
-        } catch (IOException e) {
-            e.printStackTrace();
+        this.messageTimes = server.getMetrics().histograms("penalty_message_handle_seconds",
+                "Thời gian xử lý một message của client, theo loại", "type");
+        this.openConnections = server.getMetrics().gauge("penalty_connections_open", "Số kết nối client đang mở");
+        if (remote == null) {
+            openConnections.inc();
         }
     }
 
+    // Đại diện cho user đã đăng nhập ở node khác
+    ClientHandler(RemoteConnection connection, Server server, DatabaseManager dbManager, User user) {
+        this(connection, server, dbManager);
+        this.user = user;
+    }
+
     public User getUser() {
         return user;
     }
 
-    // Trong phương thức run()
+    // Kích thước handle table serialization của kết nối này
+    public int getHandleTableSize() {
+        return connection.getHandleTableSize();
+    }
+
+    // Vòng lặp đọc blocking, chỉ dùng với StreamConnection
     @Override
     public void run() {
+        if (stream == null) {
+            throw new IllegalStateException("Kết nối NIO không có vòng lặp đọc riêng");
+        }
         try {
+            stream.open();
             while (isRunning) {
-                System.out.println("[DEBUG SERVER] Waiting for message from client...");
-                Message message = (Message) in.readObject();
-                System.out.println("[DEBUG SERVER] Received message: " + (message != null ? message.getType() : "null"));
+                Message message = stream.read();
                 if (message != null) {
+                    Tracer.mark(message.getTrace(), "server.receive");
+                    Log.debug("message received", "type", message.getType(), "user", usernameOrClient());
                     handleMessage(message);
                 }
             }
         } catch (IOException | ClassNotFoundException | SQLException e) {
-            System.out.println("Kết nối với " + (user != null ? user.getUsername() : "client") + " bị ngắt.");
-            isRunning = false; // Dừng vòng lặp
-            if (gameRoom != null) {
-                try {
-                    gameRoom.handlePlayerDisconnect(this);
-                } catch (IOException | SQLException ex) {
-                    ex.printStackTrace();
-                }
-            }
+            handleConnectionLost();
         } finally {
+            cleanup();
+        }
+    }
+
+    // Điểm vào cho NIO: mỗi message đã giải mã được gọi tuần tự trên worker
+    void onMessage(Message message) {
+        if (!isRunning) {
+            return;
+        }
+        Tracer.mark(message.getTrace(), "server.receive");
+        try {
+            handleMessage(message);
+        } catch (IOException | SQLException e) {
+            Log.error("message handling failed", e, "type", message.getType(), "user", usernameOrClient());
             try {
-                if (user != null) {
-                    dbManager.updateUserStatus(user.getId(), "offline");
-                    server.broadcast(new Message("status_update", user.getUsername() + " đã offline."));
-                    server.removeClient(this);
-                }
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
-                }
-            } catch (IOException | SQLException e) {
-                e.printStackTrace();
+                connection.close();
+            } catch (IOException ex) {
+                Log.warn("close failed", ex, "user", usernameOrClient());
+            }
+        }
+    }
+
+    // Điểm vào cho NIO khi kết nối đã đóng
+    void onDisconnect() {
+        if (isRunning) {
+            handleConnectionLost();
+        }
+        cleanup();
+    }
+
+    private void handleConnectionLost() {
+        Log.info("connection lost", "user", usernameOrClient());
+        isRunning = false; // Dừng vòng lặp
+        GameRoom room = gameRoom;
+        String roomNode = remoteRoomNode;
+        if (room != null) {
+            room.handlePlayerDisconnect(this);
+        } else if (roomNode != null) {
+            server.getCluster().send(roomNode,
+                    ClusterEvent.of(ClusterEvent.DISCONNECT, server.getCluster().getNodeId(), user.getId()));
+            remoteRoomNode = null;
+        }
+    }
+
+    private void cleanup() {
+        try {
+            // Trạng thái của người chơi ở node khác do node gốc của họ quản lý
+            if (user != null && remote == null) {
+                server.setUserStatus(user, "offline");
+                server.removeClient(this);
             }
+            if (remote == null) {
+                openConnections.dec();
+            }
+            if (connection.isOpen()) {
+                connection.close();
+            }
+        } catch (IOException e) {
+            Log.warn("close failed", e, "user", usernameOrClient());
         }
     }
 
+    private String usernameOrClient() {
+        User u = user;
+        return u != null ? u.getUsername() : "client";
+    }
+
     private void handleMessage(Message message) throws IOException, SQLException {
+        long start = System.nanoTime();
+        boolean known = false;
+        try {
+            known = dispatch(message);
+        } finally {
+            // Loại lạ gom chung một nhãn để client không tạo được vô số chuỗi số liệu
+            messageTimes.labels(known ? message.getType() : "other").recordSince(start);
+        }
+    }
+
+    // false nếu loại message không được hỗ trợ
+    private boolean dispatch(Message message) throws IOException, SQLException {
+        String roomNode = remoteRoomNode;
+        if (roomNode != null && isRoomMessage(message.getType())) {
+            // Phòng nằm ở node khác: chuyển nước đi tới đó
+            server.getCluster().send(roomNode, ClusterEvent.message(ClusterEvent.ROOM_INPUT,
+                    server.getCluster().getNodeId(), user.getId(), message));
+            return true;
+        }
         switch (message.getType()) {
             case "register":
                 handleRegister(message);
@@ -86,7 +179,11 @@ public class ClientHandler implements Runnable {
                 handleLogin(message);
                 break;
             case "get_users":
-                handleGetUsers();
+                handleGetUsers(message);
+                break;
+            case "presence_sync":
+                // Client nối lại, content là version presence cuối cùng nó đã thấy
+                server.sendPresenceSince(this, ((Number) message.getContent()).longValue());
                 break;
             case "request_match":
                 handleMatchRequest(message);
@@ -94,6 +191,12 @@ public class ClientHandler implements Runnable {
             case "match_response":
                 handleMatchResponse(message);
                 break;
+            case "queue_join":
+                handleQueueJoin();
+                break;
+            case "queue_leave":
+                handleQueueLeave();
+                break;
             case "chat":
                 handleChat(message);
                 break;
@@ -110,7 +213,10 @@ public class ClientHandler implements Runnable {
                 handlePlayAgainResponse(message);
                 break;
             case "get_leaderboard":
-                handleGetLeaderboard();
+                handleGetLeaderboard(message);
+                break;
+            case "get_rank":
+                handleGetRank(message);
                 break;
             case "get_match_history":
                 handleGetMatchHistory();
@@ -131,17 +237,29 @@ public class ClientHandler implements Runnable {
                 // Không cần xử lý gì thêm ở server side cho thông báo này
                 break;
             // Các loại message khác
-            // ...
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isRoomMessage(String type) {
+        switch (type) {
+            case "shoot":
+            case "goalkeeper":
+            case "play_again_response":
+            case "quit_game":
+            case "timeout":
+                return true;
+            default:
+                return false;
         }
     }
 
     private void handleHandleTimeout(Message message) throws IOException, SQLException {
-        if (gameRoom != null) {
-            if (message.getContent().equals("shooter")) {
-                gameRoom.startShooterTimeout();
-            } else if (message.getContent().equals("goalkeeper")) {
-                gameRoom.startGoalkeeperTimeout();
-            }
+        GameRoom room = gameRoom;
+        if (room != null) {
+            room.handleTimeoutReport(message.getContent(), this);
         }
     }
 
@@ -157,8 +275,9 @@ public class ClientHandler implements Runnable {
     }
 
     private void handleQuitGame() throws IOException, SQLException {
-        if (gameRoom != null) {
-            gameRoom.handlePlayerQuit(this);
+        GameRoom room = gameRoom;
+        if (room != null) {
+            room.handlePlayerQuit(this);
         }
     }
 
@@ -167,41 +286,50 @@ public class ClientHandler implements Runnable {
         sendMessage(new Message("match_history", history));
     }
 
-    private void handleGetLeaderboard() throws IOException, SQLException {
-        List<common.UserStats> leaderboard = dbManager.getLeaderboardWithStats();
+    // Content tùy chọn: số dòng muốn lấy; mặc định theo cấu hình
+    private void handleGetLeaderboard(Message message) throws IOException {
+        int size = server.getConfig().getLeaderboardSize();
+        if (message.getContent() instanceof Integer) {
+            size = Math.max(0, Math.min((Integer) message.getContent(), UserDirectory.MAX_PAGE_SIZE));
+        }
+        List<common.UserStats> leaderboard = server.topPlayers(size);
         sendMessage(new Message("leaderboard", leaderboard));
     }
 
+    // Content tùy chọn: id user cần xem, mặc định là chính mình; trả về {thứ hạng, tổng số user}
+    private void handleGetRank(Message message) throws IOException {
+        int userId = message.getContent() instanceof Integer ? (Integer) message.getContent() : user.getId();
+        Leaderboard leaderboard = server.getLeaderboard();
+        sendMessage(new Message("rank", new int[] { leaderboard.rankOf(userId), leaderboard.size() }));
+    }
+
     private void handlePlayAgainResponse(Message message) throws SQLException, IOException {
         boolean playAgain = (boolean) message.getContent();
-        if (gameRoom != null) {
-            gameRoom.handlePlayAgainResponse(playAgain, this);
+        GameRoom room = gameRoom;
+        if (room != null) {
+            room.handlePlayAgainResponse(playAgain, this);
         }
     }
     
     private void handleRegister(Message message) throws IOException, SQLException {
-        System.out.println("[DEBUG SERVER] Received register message");
         String[] credentials = (String[]) message.getContent();
         String username = credentials[0];
         String password = credentials[1];
-        System.out.println("[DEBUG SERVER] Register attempt - Username: " + username);
         
         try {
-            System.out.println("[DEBUG SERVER] Calling dbManager.registerUser()");
-            boolean success = dbManager.registerUser(username, password);
-            System.out.println("[DEBUG SERVER] Registration result: " + success);
+            int newUserId = dbManager.createUser(username, password);
+            boolean success = newUserId > 0;
+            Log.debug("register", "username", username, "success", success);
             
             if (success) {
+                server.addUser(newUserId, username);
                 sendMessage(new Message("register_success", "Đăng ký thành công! Vui lòng đăng nhập."));
-                System.out.println("[DEBUG SERVER] Sent register_success to client for: " + username);
             } else {
                 sendMessage(new Message("register_error", "Tên đăng nhập đã tồn tại. Vui lòng chọn tên khác."));
-                System.out.println("[DEBUG SERVER] Sent register_error - username exists");
             }
         } catch (SQLException e) {
-            System.err.println("[ERROR SERVER] SQLException during registration: " + e.getMessage());
+            Log.error("register failed", e, "username", username);
             sendMessage(new Message("register_error", "Lỗi server khi đăng ký. Vui lòng thử lại."));
-            e.printStackTrace();
         }
     }
 
@@ -211,25 +339,26 @@ public class ClientHandler implements Runnable {
         String password = credentials[1];
         Pair<User, Boolean> pairAuthnticatedUser = dbManager.authenticate(username, password);
         User _user = pairAuthnticatedUser.getKey();
-        Boolean isOffline = pairAuthnticatedUser.getValue();
         
         if (_user != null) {
+            // Trạng thái lấy từ bảng trạng thái của server, users.status trong DB có thể đang ghi trễ
+            boolean isOffline = "offline".equals(server.getUserStatus(_user.getId()));
             // Kiểm tra xem có client nào đang kết nối với user này không
             ClientHandler existingClient = server.getClientById(_user.getId());
+            boolean connectedElsewhere = server.getCluster().locate(_user.getId()) != null;
             
-            // Nếu không có client nào đang kết nối, cho phép đăng nhập lại
+            // Nếu không có client nào đang kết nối (ở node này và các node khác), cho phép đăng nhập lại
             // (có thể do server restart hoặc client đóng đột ngột)
-            if (existingClient == null || isOffline == true) {
+            if ((existingClient == null && !connectedElsewhere) || isOffline) {
                 // Nếu có client cũ nhưng status là offline, remove nó
                 if (existingClient != null) {
                     server.removeClient(existingClient);
                 }
                 
                 this.user = _user;
-                dbManager.updateUserStatus(user.getId(), "online");
-                user.setStatus("online"); // Cập nhật trạng thái trong đối tượng user
+                server.getUserDirectory().put(user);
+                server.setUserStatus(user, "online"); // Cập nhật bảng trạng thái và đối tượng user
                 sendMessage(new Message("login_success", user));
-                server.broadcast(new Message("status_update", user.getUsername() + " đã online."));
                 server.addClient(user.getId(), this); // Thêm client vào danh sách server
             } else {
                 // Có client đang kết nối và status là online
@@ -242,40 +371,45 @@ public class ClientHandler implements Runnable {
 
     private void handleLogout() throws IOException, SQLException {
         if (user != null) {
-            dbManager.updateUserStatus(user.getId(), "offline");
-            user.setStatus("offline");
-            server.broadcast(new Message("status_update", user.getUsername() + " đã offline."));
-            if (socket != null && !socket.isClosed()) {
+            server.setUserStatus(user, "offline");
+            if (connection.isOpen()) {
                 sendMessage(new Message("logout_success", "Đăng xuất thành công."));
             }
             isRunning = false; // Dừng vòng lặp
             server.removeClient(this);
-            socket.close();
+            connection.close();
         }
     }
 
-    private void handleGetUsers() throws IOException, SQLException {
-        List<User> users = dbManager.getUsers();
+    private void handleGetUsers(Message message) throws IOException {
+        // Lấy từ danh bạ trong bộ nhớ, content có thể là UserQuery để lọc và phân trang
+        UserQuery query = message.getContent() instanceof UserQuery ? (UserQuery) message.getContent() : null;
+        List<User> users = server.listUsers(query);
         sendMessage(new Message("user_list", users));
     }
 
     private void handleMatchRequest(Message message) throws IOException, SQLException {
         int opponentId = (int) message.getContent();
-        System.out.println("Received match request from user ID: " + user.getId() + " to opponent ID: " + opponentId);
         ClientHandler opponent = server.getClientById(opponentId);
         if (opponent != null) {
-            System.out.println("Opponent found: " + opponent.getUser().getUsername() + " - Status: "
-                    + opponent.getUser().getStatus());
-            if (opponent.getUser().getStatus().equals("online")) {
+            // Đọc bảng trạng thái chung: phòng mở ở node khác chỉ cập nhật ở đó, không cập nhật User của handler
+            String opponentStatus = server.getUserStatus(opponentId);
+            Log.debug("match request", "from", user.getId(), "to", opponentId, "status", opponentStatus);
+            if (server.isAvailable(opponent)) {
                 opponent.sendMessage(new Message("match_request", user.getId()));
-                System.out.println("Match request sent to " + opponent.getUser().getUsername());
             } else {
                 sendMessage(new Message("match_response", "Người chơi không sẵn sàng."));
-                System.out.println("Opponent is not online.");
+            }
+        } else if (server.getCluster().locate(opponentId) != null) {
+            // Đối thủ ở node khác: trạng thái lấy từ bảng trạng thái chung, lời mời đi qua cluster
+            if ("online".equals(server.getUserStatus(opponentId))) {
+                server.getCluster().deliver(opponentId, new Message("match_request", user.getId()));
+            } else {
+                sendMessage(new Message("match_response", "Người chơi không sẵn sàng."));
             }
         } else {
             sendMessage(new Message("match_response", "Người chơi không tồn tại hoặc không online."));
-            System.out.println("Opponent not found.");
+            Log.debug("match request: opponent not found", "from", user.getId(), "to", opponentId);
         }
     }
 
@@ -286,26 +420,117 @@ public class ClientHandler implements Runnable {
         ClientHandler requester = server.getClientById(requesterId);
         if (requester != null) {
             if (accepted) {
-                // Tạo phòng chơi giữa this và requester
-                GameRoom newGameRoom = new GameRoom(this, requester, dbManager);
-                this.gameRoom = newGameRoom;
-                requester.gameRoom = newGameRoom;
+                // Một trong hai có thể đã vào phòng khác (ghép từ hàng đợi) trong lúc chờ trả lời;
+                // startMatchWith giữ chỗ cả hai nên chỉ một trong hai lần ghép thành công
+                if (server.isAvailable(this) && server.isAvailable(requester) && startMatchWith(requester)) {
+                    return;
+                }
+                if (server.isAvailable(this)) {
+                    sendMessage(new Message("match_response", "Người chơi không sẵn sàng."));
+                }
+                if (server.isAvailable(requester)) {
+                    requester.sendMessage(new Message("match_response", "Người chơi không sẵn sàng."));
+                }
+            } else {
+                requester.sendMessage(new Message("match_response", "Yêu cầu trận đấu của bạn đã bị từ chối."));
+            }
+        } else if (!accepted) {
+            server.getCluster().deliver(requesterId,
+                    new Message("match_response", "Yêu cầu trận đấu của bạn đã bị từ chối."));
+        } else if ("online".equals(server.getUserStatus(requesterId))) {
+            if (!server.isAvailable(this)) {
+                server.getCluster().deliver(requesterId, new Message("match_response", "Người chơi không sẵn sàng."));
+                return;
+            }
+            // Người mời ở node khác: phòng được mở trên node này
+            ClientHandler remoteRequester = server.getCluster().attachRemotePlayer(requesterId, dbManager);
+            if (remoteRequester != null && !startMatchWith(remoteRequester)) {
+                // Node gốc đã được báo ROOM_JOINED: báo phòng đóng để gỡ người mời ra
+                remoteRequester.clearGameRoom();
+                server.getCluster().deliver(requesterId, new Message("match_response", "Người chơi không sẵn sàng."));
+            }
+        }
+    }
 
-                // update ingame status and broadcast all client --VIETHUNG--
-                this.user.setStatus("ingame");
-                requester.user.setStatus("ingame");
+    // Tạo phòng chơi giữa this và opponent (từ lời mời trực tiếp hoặc hàng đợi ghép trận).
+    // false nếu một trong hai đã được giữ chỗ cho phòng khác
+    boolean startMatchWith(ClientHandler opponent) throws SQLException {
+        if (!reserve(this, opponent)) {
+            return false;
+        }
+        server.getMatchmaker().leave(user.getId());
+        server.getMatchmaker().leave(opponent.user.getId());
+        GameRoom newGameRoom;
+        try {
+            newGameRoom = new GameRoom(this, opponent, dbManager);
+        } catch (SQLException | RuntimeException e) {
+            this.reserved.set(false);
+            opponent.reserved.set(false);
+            throw e;
+        }
+        this.gameRoom = newGameRoom;
+        opponent.gameRoom = newGameRoom;
 
-                dbManager.updateUserStatus(user.getId(), "ingame");
-                requester.dbManager.updateUserStatus(user.getId(), "ingame");
+        // update ingame status and broadcast all client --VIETHUNG--
+        server.setUserStatus(this.user, "ingame");
+        server.setUserStatus(opponent.user, "ingame");
 
-                server.broadcast(new Message("status_update", user.getUsername() + " is ingame"));
-                server.broadcast(new Message("status_update", requester.user.getUsername() + " is ingame"));
+        newGameRoom.startMatch();
+        return true;
+    }
 
-                newGameRoom.startMatch();
-            } else {
-                requester.sendMessage(new Message("match_response", "Yêu cầu trận đấu của bạn đã bị từ chối."));
-            }
+    // Giữ chỗ cả hai người chơi theo thứ tự id, trả lại chỗ đã lấy nếu người thứ hai đã bận
+    private static boolean reserve(ClientHandler a, ClientHandler b) {
+        ClientHandler first = a.user.getId() < b.user.getId() ? a : b;
+        ClientHandler second = first == a ? b : a;
+        if (!first.reserved.compareAndSet(false, true)) {
+            return false;
         }
+        if (!second.reserved.compareAndSet(false, true)) {
+            first.reserved.set(false);
+            return false;
+        }
+        return true;
+    }
+
+    boolean isInGame() {
+        return reserved.get() || gameRoom != null || remoteRoomNode != null;
+    }
+
+    // Node khác vừa mở phòng cho client này; false nếu client đang ở trong một phòng khác
+    boolean joinRemoteRoom(String node) {
+        if (!reserved.compareAndSet(false, true)) {
+            return false;
+        }
+        remoteRoomNode = node;
+        server.getMatchmaker().leave(user.getId());
+        return true;
+    }
+
+    // false nếu client không ở phòng trên node đó
+    boolean leaveRemoteRoom(String node) {
+        if (!node.equals(remoteRoomNode)) {
+            return false;
+        }
+        remoteRoomNode = null;
+        reserved.set(false);
+        return true;
+    }
+
+    private void handleQueueJoin() throws IOException {
+        if (user == null || isInGame() || !"online".equals(server.getUserStatus(user.getId()))) {
+            sendMessage(new Message("queue_status", "unavailable"));
+            return;
+        }
+        server.getMatchmaker().join(this, server.pointsOf(user));
+        sendMessage(new Message("queue_status", "waiting"));
+    }
+
+    private void handleQueueLeave() throws IOException {
+        if (user != null) {
+            server.getMatchmaker().leave(user.getId());
+        }
+        sendMessage(new Message("queue_status", "left"));
     }
 
     private void handleChat(Message message) {
@@ -314,43 +539,70 @@ public class ClientHandler implements Runnable {
     }
 
     private void handleShoot(Message message) throws SQLException, IOException {
-        if (gameRoom != null) {
+        GameRoom room = gameRoom;
+        if (room != null) {
             String shooterDir = (String) message.getContent();
-            gameRoom.handleShot(shooterDir, this);
+            room.handleShot(shooterDir, this, message.getTrace());
         }
     }
 
     private void handleGoalkeeper(Message message) throws SQLException, IOException {
-        if (gameRoom != null) {
+        GameRoom room = gameRoom;
+        if (room != null) {
             String goalkeeperDir = (String) message.getContent();
-            gameRoom.handleGoalkeeper(goalkeeperDir, this);
+            room.handleGoalkeeper(goalkeeperDir, this, message.getTrace());
         }
     }
 
+    // Xếp broadcast vào hàng đợi của kết nối; false khi client quá chậm và hàng đợi đã đầy
+    boolean sendBroadcast(Broadcast broadcast) {
+        try {
+            return !connection.isOpen() || connection.sendBroadcast(broadcast);
+        } catch (IOException e) {
+            Log.warn("broadcast failed", "user", usernameOrClient(), "error", e.getMessage());
+            return true;
+        }
+    }
+
+    // Đóng kết nối của client không theo kịp broadcast; vòng đọc sẽ dọn dẹp như khi mất kết nối
+    void disconnectSlowConsumer() {
+        Log.warn("disconnecting slow consumer", "user", usernameOrClient());
+        try {
+            connection.abort();
+        } catch (IOException e) {
+            Log.warn("abort failed", e, "user", usernameOrClient());
+        }
+    }
+
+    boolean isLegacyClient() {
+        return connection.isLegacy();
+    }
+
     public void sendMessage(Message message) {
         try {
-            if (socket != null && !socket.isClosed()) {
-                out.writeObject(message);
-                out.flush();
+            if (connection.isOpen()) {
+                connection.send(message);
             } else {
-                System.out.println(
-                        "Socket đã đóng, không thể gửi tin nhắn tới " + (user != null ? user.getUsername() : "client"));
+                Log.debug("send on closed connection", "type", message.getType(), "user", usernameOrClient());
             }
         } catch (IOException e) {
-            System.out.println("Lỗi khi gửi tin nhắn tới " + (user != null ? user.getUsername() : "client") + ": "
-                    + e.getMessage());
+            Log.warn("send failed", "type", message.getType(), "user", usernameOrClient(), "error", e.getMessage());
             // Không gọi lại handleLogout() ở đây để tránh đệ quy
             // Đánh dấu client là đã ngắt kết nối
             try {
-                socket.close();
+                connection.close();
             } catch (IOException ex) {
-                ex.printStackTrace();
+                Log.warn("close failed", ex, "user", usernameOrClient());
             }
         }
     }
 
     public void clearGameRoom() {
         this.gameRoom = null;
+        reserved.set(false);
+        if (remote != null) {
+            remote.roomClosed();
+        }
     }
 
     public Server getServer() {
@@ -0,0 +1,34 @@
+package server;
+
+import java.util.Set;
+
+/**
+ * Kênh trao đổi sự kiện giữa các node server (presence, danh bạ, định tuyến message tới user
+ * ở node khác). Sự kiện từ một node tới một node khác phải được giao đúng thứ tự gửi.
+ * LocalClusterBus chạy trong cùng tiến trình; SocketClusterBus nối các tiến trình qua TCP.
+ */
+public interface ClusterBus {
+
+    interface Listener {
+        void onEvent(ClusterEvent event);
+
+        // Một node khác vừa vào cluster hoặc nối lại sau khi mất kết nối; gọi trên cùng hàng đợi với onEvent
+        default void onMemberJoined(String nodeId) {
+        }
+
+        // Một node khác đã rời cluster hoặc mất kết nối
+        default void onMemberLeft(String nodeId) {
+        }
+    }
+
+    // Node bắt đầu nhận sự kiện; trả về các node đã có trong cluster trước node này
+    Set<String> join(String nodeId, Listener listener);
+
+    void leave(String nodeId);
+
+    // Gửi cho mọi node khác
+    void publish(ClusterEvent event);
+
+    // Gửi cho một node; bỏ qua nếu node đó không còn trong cluster
+    void send(String nodeId, ClusterEvent event);
+}
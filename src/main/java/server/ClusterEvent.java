@@ -0,0 +1,107 @@
+package server;
+
+import common.Message;
+
+import java.io.Serializable;
+
+/**
+ * Một sự kiện trao đổi giữa các node qua ClusterBus. Bất biến và Serializable để bus
+ * có thể chuyển qua socket; sourceNode do node gửi điền vào.
+ */
+public final class ClusterEvent implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Trạng thái online/ingame/offline của một user thay đổi
+    static final String PRESENCE = "presence";
+    // User vừa kết nối vào / rời khỏi sourceNode
+    static final String ATTACH = "attach";
+    static final String DETACH = "detach";
+    // User mới đăng ký
+    static final String USER = "user";
+    // Cộng điểm sau trận và một lượt sút, để danh bạ và bảng xếp hạng của mọi node khớp nhau
+    static final String POINTS = "points";
+    static final String KICK = "kick";
+    // Message gửi tới mọi client (chat)
+    static final String BROADCAST = "broadcast";
+    // Message gửi tới client của userId trên node nhận
+    static final String DELIVER = "deliver";
+    // Phòng chơi của userId nằm trên sourceNode / đã giải tán
+    static final String ROOM_JOINED = "room_joined";
+    static final String ROOM_LEFT = "room_left";
+    // Nước đi của userId gửi về node giữ phòng
+    static final String ROOM_INPUT = "room_input";
+    // Kết nối của userId bị ngắt khi đang chơi ở node khác
+    static final String DISCONNECT = "disconnect";
+
+    private final String type;
+    private final String sourceNode;
+    private final int userId;
+    private final String username;
+    private final int value;
+    private final String status;
+    private final Message message;
+
+    private ClusterEvent(String type, String sourceNode, int userId, String username, int value, String status,
+            Message message) {
+        this.type = type;
+        this.sourceNode = sourceNode;
+        this.userId = userId;
+        this.username = username;
+        this.value = value;
+        this.status = status;
+        this.message = message;
+    }
+
+    static ClusterEvent of(String type, String sourceNode, int userId) {
+        return new ClusterEvent(type, sourceNode, userId, null, 0, null, null);
+    }
+
+    static ClusterEvent presence(String sourceNode, int userId, String username, String status) {
+        return new ClusterEvent(PRESENCE, sourceNode, userId, username, 0, status, null);
+    }
+
+    static ClusterEvent user(String sourceNode, int userId, String username) {
+        return new ClusterEvent(USER, sourceNode, userId, username, 0, null, null);
+    }
+
+    static ClusterEvent points(String sourceNode, int userId, int points) {
+        return new ClusterEvent(POINTS, sourceNode, userId, null, points, null, null);
+    }
+
+    // value là id thủ môn, status là "win"/"lose" giống match_details
+    static ClusterEvent kick(String sourceNode, int shooterId, int goalkeeperId, boolean goal) {
+        return new ClusterEvent(KICK, sourceNode, shooterId, null, goalkeeperId, goal ? "win" : "lose", null);
+    }
+
+    static ClusterEvent message(String type, String sourceNode, int userId, Message message) {
+        return new ClusterEvent(type, sourceNode, userId, null, 0, null, message);
+    }
+
+    String getType() {
+        return type;
+    }
+
+    String getSourceNode() {
+        return sourceNode;
+    }
+
+    int getUserId() {
+        return userId;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    int getValue() {
+        return value;
+    }
+
+    String getStatus() {
+        return status;
+    }
+
+    Message getMessage() {
+        return message;
+    }
+}
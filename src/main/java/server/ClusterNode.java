@@ -0,0 +1,203 @@
+package server;
+
+import common.Message;
+import common.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phần cluster của một Server: phát các thay đổi cục bộ (presence, danh bạ, điểm) lên ClusterBus,
+ * áp dụng thay đổi từ node khác, và định tuyến message tới user đang kết nối ở node khác.
+ *
+ * Mỗi GameRoom chỉ sống trên một node (node của người chấp nhận lời mời). Người chơi ở node khác
+ * được đại diện bằng một ClientHandler với RemoteConnection: message của phòng đi qua bus về
+ * node gốc, nước đi của người đó được node gốc chuyển tới node giữ phòng (ROOM_INPUT).
+ *
+ * Khi gặp một node mới (kể cả node nối lại), node này gửi cho nó vị trí và trạng thái của các user
+ * đang kết nối ở đây, nên node vào sau không phải chờ các thay đổi tiếp theo mới biết ai đang online.
+ * Khi một node rời đi, user của node đó được coi là offline.
+ */
+class ClusterNode {
+    private final Server server;
+    private final String nodeId;
+    private final ClusterBus bus;
+    // User đang kết nối ở node khác -> id node đó
+    private final Map<Integer, String> locations = new ConcurrentHashMap<>();
+    // Người chơi ở node khác đang có phòng trên node này
+    private final Map<Integer, ClientHandler> remotePlayers = new ConcurrentHashMap<>();
+
+    ClusterNode(Server server, String nodeId, ClusterBus bus) {
+        this.server = server;
+        this.nodeId = nodeId;
+        this.bus = bus;
+    }
+
+    // Vào cluster; true nếu đã có node khác chạy trước node này
+    boolean start() {
+        Set<String> existing = bus.join(nodeId, new ClusterBus.Listener() {
+            @Override
+            public void onEvent(ClusterEvent event) {
+                ClusterNode.this.onEvent(event);
+            }
+
+            @Override
+            public void onMemberJoined(String node) {
+                server.sendClusterSnapshot(node);
+            }
+
+            @Override
+            public void onMemberLeft(String node) {
+                forget(node);
+            }
+        });
+        return !existing.isEmpty();
+    }
+
+    void stop() {
+        bus.leave(nodeId);
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    // Node đang giữ kết nối của user, null nếu user không kết nối ở node nào khác
+    String locate(int userId) {
+        return locations.get(userId);
+    }
+
+    void publish(ClusterEvent event) {
+        bus.publish(event);
+    }
+
+    void send(String node, ClusterEvent event) {
+        bus.send(node, event);
+    }
+
+    // Gửi message tới user ở node khác; false nếu user không kết nối ở node nào khác
+    boolean deliver(int userId, Message message) {
+        String node = locations.get(userId);
+        if (node == null) {
+            return false;
+        }
+        bus.send(node, ClusterEvent.message(ClusterEvent.DELIVER, nodeId, userId, message));
+        return true;
+    }
+
+    // Tạo đại diện cho người chơi ở node khác để mở phòng trên node này; null nếu người đó đã rời đi
+    ClientHandler attachRemotePlayer(int userId, DatabaseManager dbManager) {
+        String home = locations.get(userId);
+        User entry = server.getUserDirectory().get(userId);
+        if (home == null || entry == null) {
+            return null;
+        }
+        User user = new User(userId, entry.getUsername(), entry.getPoints(), server.getUserStatus(userId));
+        ClientHandler proxy = new ClientHandler(new RemoteConnection(this, userId, home), server, dbManager, user);
+        remotePlayers.put(userId, proxy);
+        // Gửi trước mọi message của phòng, bus giữ thứ tự nên node gốc biết phòng trước khi nhận match_start
+        bus.send(home, ClusterEvent.of(ClusterEvent.ROOM_JOINED, nodeId, userId));
+        return proxy;
+    }
+
+    // Node đã rời cluster: user của node đó thành offline, phòng liên quan tới node đó được gỡ
+    private void forget(String node) {
+        List<Integer> gone = new ArrayList<>();
+        for (Map.Entry<Integer, String> entry : locations.entrySet()) {
+            if (node.equals(entry.getValue()) && locations.remove(entry.getKey(), node)) {
+                gone.add(entry.getKey());
+            }
+        }
+        for (int userId : gone) {
+            User entry = server.getUserDirectory().get(userId);
+            server.applyRemoteStatus(userId, entry != null ? entry.getUsername() : null, "offline");
+            // Người chơi của node đó đang ở phòng trên node này: xử như mất kết nối
+            ClientHandler proxy = remotePlayers.get(userId);
+            if (proxy != null) {
+                proxy.onDisconnect();
+            }
+        }
+        // Người chơi của node này đang ở phòng trên node đã rời: trận bị hủy
+        for (ClientHandler client : server.localClients()) {
+            if (client.leaveRemoteRoom(node)) {
+                server.setUserStatus(client.getUser(), "online");
+                client.sendMessage(new Message("match_end", "Máy chủ giữ phòng đã dừng. Trận đấu kết thúc."));
+            }
+        }
+        if (!gone.isEmpty()) {
+            Log.info("cluster member left", "node", node, "users", gone.size());
+        }
+    }
+
+    void roomClosed(int userId, String home) {
+        remotePlayers.remove(userId);
+        bus.send(home, ClusterEvent.of(ClusterEvent.ROOM_LEFT, nodeId, userId));
+    }
+
+    private void onEvent(ClusterEvent event) {
+        int userId = event.getUserId();
+        String source = event.getSourceNode();
+        switch (event.getType()) {
+            case ClusterEvent.PRESENCE:
+                server.applyRemoteStatus(userId, event.getUsername(), event.getStatus());
+                break;
+            case ClusterEvent.ATTACH:
+                locations.put(userId, source);
+                break;
+            case ClusterEvent.DETACH:
+                locations.remove(userId, source);
+                break;
+            case ClusterEvent.USER:
+                server.applyRemoteUser(userId, event.getUsername());
+                break;
+            case ClusterEvent.POINTS:
+                server.applyRemotePoints(userId, event.getValue());
+                break;
+            case ClusterEvent.KICK:
+                server.getLeaderboard().recordKick(userId, event.getValue(), "win".equals(event.getStatus()));
+                break;
+            case ClusterEvent.BROADCAST:
+                server.applyRemoteBroadcast(event.getMessage());
+                break;
+            case ClusterEvent.DELIVER: {
+                ClientHandler client = server.getClientById(userId);
+                if (client != null) {
+                    client.sendMessage(event.getMessage());
+                }
+                break;
+            }
+            case ClusterEvent.ROOM_JOINED: {
+                ClientHandler client = server.getClientById(userId);
+                if (client == null || !client.joinRemoteRoom(source)) {
+                    // Người chơi đã thoát hoặc đã vào phòng khác: phòng bên kia xử như mất kết nối
+                    bus.send(source, ClusterEvent.of(ClusterEvent.DISCONNECT, nodeId, userId));
+                }
+                break;
+            }
+            case ClusterEvent.ROOM_LEFT: {
+                ClientHandler client = server.getClientById(userId);
+                if (client != null) {
+                    client.leaveRemoteRoom(source);
+                }
+                break;
+            }
+            case ClusterEvent.ROOM_INPUT: {
+                ClientHandler proxy = remotePlayers.get(userId);
+                if (proxy != null) {
+                    proxy.onMessage(event.getMessage());
+                }
+                break;
+            }
+            case ClusterEvent.DISCONNECT: {
+                ClientHandler proxy = remotePlayers.get(userId);
+                if (proxy != null) {
+                    proxy.onDisconnect();
+                }
+                break;
+            }
+        }
+    }
+}
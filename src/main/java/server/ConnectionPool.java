@@ -0,0 +1,334 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool JDBC đơn giản có giới hạn số connection.
+ * - borrow() chờ tối đa borrowTimeout khi pool đã dùng hết
+ * - connection nằm idle lâu hơn validationIdle được kiểm tra bằng isValid() trước khi trả ra
+ * - connection sống quá maxLifetime bị đóng và thay bằng connection mới
+ * - mỗi connection giữ cache PreparedStatement (LRU) theo câu SQL, statement bị đẩy ra thì đóng
+ */
+class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long validationIdleMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger total = new AtomicInteger();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private volatile long maxWaitNanos;
+    private volatile boolean closed = false;
+    // Thời gian chờ mượn connection và thời gian giữ connection theo từng loại truy vấn
+    private final Metrics.Histogram waitTimes;
+    private final Metrics.Family<Metrics.Histogram> queryTimes;
+
+    ConnectionPool(String url, String user, String password, int maxSize,
+            long borrowTimeoutMillis, long maxLifetimeMillis, long validationIdleMillis,
+            int statementCacheSize, Metrics metrics) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.validationIdleMillis = validationIdleMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.waitTimes = metrics.histogram("penalty_db_pool_wait_seconds", "Thời gian chờ mượn connection");
+        this.queryTimes = metrics.histograms("penalty_db_query_seconds",
+                "Thời gian giữ connection của một truy vấn, theo loại", "query");
+        metrics.gauge("penalty_db_pool_active", "Số connection đang được mượn", this::getActiveCount);
+        metrics.gauge("penalty_db_pool_idle", "Số connection rảnh trong pool", this::getIdleCount);
+        metrics.gauge("penalty_db_pool_total", "Số connection vật lý đang mở", this::getTotalCount);
+        metrics.counter("penalty_db_pool_timeouts_total", "Số lần hết giờ chờ connection", this::getTimeoutCount);
+        metrics.counter("penalty_db_statement_cache_hits_total", "Số lần dùng lại PreparedStatement",
+                this::getStatementCacheHits);
+        metrics.counter("penalty_db_statement_cache_misses_total", "Số lần phải prepare câu SQL mới",
+                this::getStatementCacheMisses);
+    }
+
+    // Mở sẵn một connection để báo lỗi cấu hình ngay khi khởi động
+    void warmUp() throws SQLException {
+        try (Lease lease = borrow()) {
+            lease.connection();
+        }
+    }
+
+    Lease borrow() throws SQLException {
+        return borrow(null);
+    }
+
+    // query: tên loại truy vấn để đo thời gian giữ connection, null thì không đo
+    Lease borrow(String query) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool đã đóng");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("Hết " + borrowTimeoutMillis
+                        + "ms chờ connection (active=" + active.get() + ", max=" + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Bị ngắt khi chờ connection", e);
+        }
+        try {
+            PooledConnection pooled = takeIdleOrCreate();
+            long waited = System.nanoTime() - start;
+            waitNanos.add(waited);
+            waitTimes.record(waited);
+            borrowCount.increment();
+            if (waited > maxWaitNanos) {
+                maxWaitNanos = waited;
+            }
+            active.incrementAndGet();
+            return new Lease(pooled, query == null ? null : queryTimes.labels(query));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdleOrCreate() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            long now = System.currentTimeMillis();
+            if (now - pooled.createdAt > maxLifetimeMillis) {
+                discard(pooled);
+                continue;
+            }
+            if (now - pooled.lastUsed > validationIdleMillis && !isValid(pooled)) {
+                discard(pooled);
+                continue;
+            }
+            return pooled;
+        }
+        Connection connection = DriverManager.getConnection(url, user, password);
+        total.incrementAndGet();
+        return new PooledConnection(connection, statementCacheSize);
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.connection.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        try {
+            if (closed || pooled.connection.isClosed()
+                    || System.currentTimeMillis() - pooled.createdAt > maxLifetimeMillis) {
+                discard(pooled);
+            } else {
+                if (!pooled.connection.getAutoCommit()) {
+                    // Không để transaction dang dở lọt sang người mượn sau
+                    pooled.connection.rollback();
+                    pooled.connection.setAutoCommit(true);
+                }
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            }
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        total.decrementAndGet();
+        pooled.close();
+    }
+
+    int getActiveCount() {
+        return active.get();
+    }
+
+    int getIdleCount() {
+        return idle.size();
+    }
+
+    int getTotalCount() {
+        return total.get();
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    // Tổng thời gian chờ connection (nano giây)
+    long getTotalWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    long getStatementCacheHits() {
+        return statementHits.sum();
+    }
+
+    long getStatementCacheMisses() {
+        return statementMisses.sum();
+    }
+
+    @Override
+    public String toString() {
+        long borrows = getBorrowCount();
+        return "ConnectionPool{active=" + getActiveCount() + ", idle=" + getIdleCount() + ", max=" + maxSize
+                + ", borrows=" + borrows + ", timeouts=" + getTimeoutCount()
+                + ", avgWaitUs=" + (borrows == 0 ? 0 : getTotalWaitNanos() / borrows / 1000)
+                + ", maxWaitUs=" + getMaxWaitNanos() / 1000
+                + ", stmtHits=" + getStatementCacheHits() + ", stmtMisses=" + getStatementCacheMisses() + "}";
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    // Connection vật lý cùng thông tin vòng đời và cache PreparedStatement
+    static final class PooledConnection {
+        final Connection connection;
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastUsed = createdAt;
+        // Chỉ người đang mượn connection truy cập nên không cần đồng bộ
+        private final Map<String, PreparedStatement> statements;
+
+        PooledConnection(Connection connection, int cacheSize) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > cacheSize) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        // Khóa cache gồm cờ generated keys vì hai kiểu prepare khác nhau trên driver
+        PreparedStatement prepare(String sql, int autoGeneratedKeys, LongAdder hits, LongAdder misses)
+                throws SQLException {
+            String key = autoGeneratedKeys + ":" + sql;
+            PreparedStatement stmt = statements.get(key);
+            if (stmt != null && !stmt.isClosed()) {
+                hits.increment();
+                stmt.clearParameters();
+                return stmt;
+            }
+            misses.increment();
+            stmt = connection.prepareStatement(sql, autoGeneratedKeys);
+            statements.put(key, stmt);
+            return stmt;
+        }
+
+        int cachedStatementCount() {
+            return statements.size();
+        }
+
+        void close() {
+            Iterator<PreparedStatement> it = statements.values().iterator();
+            while (it.hasNext()) {
+                closeQuietly(it.next());
+                it.remove();
+            }
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                Log.warn("connection close failed", e);
+            }
+        }
+
+        private static void closeQuietly(PreparedStatement stmt) {
+            try {
+                stmt.close();
+            } catch (SQLException ignored) {
+                // connection có thể đã chết, bỏ qua
+            }
+        }
+    }
+
+    // Quyền dùng một connection, trả về pool khi close() (dùng với try-with-resources)
+    final class Lease implements AutoCloseable {
+        private PooledConnection pooled;
+        private final Metrics.Histogram timer;
+        private final long startedAt = System.nanoTime();
+
+        private Lease(PooledConnection pooled, Metrics.Histogram timer) {
+            this.pooled = pooled;
+            this.timer = timer;
+        }
+
+        Connection connection() {
+            return pooled.connection;
+        }
+
+        // Statement lấy từ cache của connection: người gọi KHÔNG được close(), chỉ đóng ResultSet
+        PreparedStatement prepare(String sql) throws SQLException {
+            return prepare(sql, Statement.NO_GENERATED_KEYS);
+        }
+
+        PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            return pooled.prepare(sql, autoGeneratedKeys, statementHits, statementMisses);
+        }
+
+        @Override
+        public void close() {
+            if (pooled != null) {
+                PooledConnection p = pooled;
+                pooled = null;
+                release(p);
+                if (timer != null) {
+                    timer.recordSince(startedAt);
+                }
+            }
+        }
+    }
+}
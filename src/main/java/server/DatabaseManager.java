@@ -4,18 +4,32 @@ import common.Match;
 import common.User;
 import common.MatchDetails;
 import common.Pair;
+import common.TraceContext;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DatabaseManager {
 
-    private static final String URL = "jdbc:mysql://localhost:3306/penalty_shootout";
-    private static final String USER = "root";
-    private static final String PASSWORD = "123456";
+    // Một thao tác DB chạy qua submit()
+    interface Call<T> {
+        T call() throws SQLException;
+    }
 
-    private Connection conn;
+    private final ConnectionPool pool;
+    private final ServerConfig config;
+    private final Metrics metrics;
+    // Tạo trong start(), không tạo trong constructor để this không lọt ra thread khác khi chưa dựng xong
+    private MatchDetailsWriter kickWriter;
+    private UserStatusWriter statusWriter;
+    private ExecutorService callers;
 
     static {
         // Load MySQL driver (hỗ trợ version 8.0+ và 9.0+)
@@ -38,325 +52,549 @@ public class DatabaseManager {
     }
 
     public DatabaseManager() throws SQLException {
+        this(new ServerConfig());
+    }
+
+    public DatabaseManager(ServerConfig config) throws SQLException {
+        this(config, new Metrics());
+    }
+
+    // Thời gian từng loại truy vấn và trạng thái pool được ghi vào metrics của server
+    DatabaseManager(ServerConfig config, Metrics metrics) throws SQLException {
+        this.config = config;
+        this.metrics = metrics;
+        pool = new ConnectionPool(config.getDbUrl(), config.getDbUser(), config.getDbPassword(),
+                config.getDbPoolSize(), config.getDbBorrowTimeoutMillis(),
+                config.getDbMaxLifetimeMillis(), config.getDbValidationIdleMillis(),
+                config.getDbStatementCacheSize(), metrics);
         try {
-            conn = DriverManager.getConnection(URL, USER, PASSWORD);
-            System.out.println("Connected to MySQL database: penalty_shootout");
+            pool.warmUp();
+            System.out.println("Connected to MySQL database: penalty_shootout (pool tối đa "
+                    + config.getDbPoolSize() + " connection)");
         } catch (SQLException e) {
             System.err.println("Failed to connect to MySQL database!");
-            System.err.println("URL: " + URL);
-            System.err.println("User: " + USER);
+            System.err.println("URL: " + config.getDbUrl());
+            System.err.println("User: " + config.getDbUser());
             System.err.println("Check: 1) MySQL is running, 2) Database exists, 3) Username/Password correct");
             throw e;
         }
     }
 
+    // Chạy các thread ghi nền (match_details, users.status); gọi một lần ngay sau khi tạo
+    public void start() {
+        if (kickWriter != null) {
+            return;
+        }
+        kickWriter = new MatchDetailsWriter(this, config.getKickQueueCapacity(),
+                config.getKickBatchSize(), config.getKickFlushMillis());
+        statusWriter = new UserStatusWriter(this, config.getStatusFlushMillis());
+        // Mỗi connection của pool một thread: nhiều thread hơn cũng chỉ đứng chờ mượn connection
+        AtomicInteger callerCount = new AtomicInteger();
+        callers = Executors.newFixedThreadPool(config.getDbPoolSize(), r -> {
+            Thread t = new Thread(r, "db-call-" + callerCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        metrics.gauge("penalty_db_kick_queue", "Số lượt sút chờ ghi vào match_details", kickWriter::getPendingCount);
+        metrics.counter("penalty_db_kicks_failed_total", "Số lượt sút ghi thất bại", kickWriter::getFailedCount);
+        metrics.counter("penalty_db_kick_queue_over_capacity_total",
+                "Số lần hàng đợi match_details vượt ngưỡng (DB không theo kịp)", kickWriter::getOverCapacityCount);
+        metrics.gauge("penalty_db_status_queue", "Số users.status chờ ghi gộp", statusWriter::getPendingCount);
+        // Không để mất các lượt sút và trạng thái còn trong hàng đợi khi tắt server
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            kickWriter.close();
+            statusWriter.close();
+        }, "db-writer-flush"));
+    }
+
+    // Chạy thao tác DB trên thread nền và trả kết quả qua future, để hộp thư của phòng không bị chặn bởi JDBC
+    <T> CompletableFuture<T> submit(Call<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        callers.execute(() -> {
+            try {
+                result.complete(call.call());
+            } catch (SQLException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    // Trạng thái pool: số connection đang mượn/idle, thời gian chờ
+    ConnectionPool getPool() {
+        return pool;
+    }
+
     // Phương thức đăng ký
     public boolean registerUser(String username, String password) throws SQLException {
-        System.out.println("[DEBUG DB] registerUser called - Username: " + username);
-        
-        // Kiểm tra xem username đã tồn tại chưa
-        String checkQuery = "SELECT * FROM users WHERE username = ?";
-        PreparedStatement checkStmt = conn.prepareStatement(checkQuery);
-        checkStmt.setString(1, username);
-        System.out.println("[DEBUG DB] Executing query to check if username exists");
-        ResultSet rs = checkStmt.executeQuery();
+        return createUser(username, password) > 0;
+    }
+
+    // Đăng ký và trả về id user mới, -1 nếu username đã tồn tại
+    public int createUser(String username, String password) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow("createUser")) {
+            // Kiểm tra xem username đã tồn tại chưa
+            String checkQuery = "SELECT * FROM users WHERE username = ?";
+            PreparedStatement checkStmt = lease.prepare(checkQuery);
+            checkStmt.setString(1, username);
+            try (ResultSet rs = checkStmt.executeQuery()) {
+                if (rs.next()) {
+                    // Username đã tồn tại
+                    Log.debug("createUser: username exists", "username", username);
+                    return -1;
+                }
+            }
         
-        if (rs.next()) {
-            // Username đã tồn tại
-            System.out.println("[DEBUG DB] Username already exists: " + username);
-            return false;
+            // Thêm user mới và dòng user_stats của nó trong cùng một transaction
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            String insertQuery = "INSERT INTO users (username, password, points, status) VALUES (?, ?, 0, 'offline')";
+            PreparedStatement insertStmt = lease.prepare(insertQuery, Statement.RETURN_GENERATED_KEYS);
+            insertStmt.setString(1, username);
+            insertStmt.setString(2, password);
+            int result = insertStmt.executeUpdate();
+            if (result <= 0) {
+                return -1;
+            }
+            int userId;
+            try (ResultSet keys = insertStmt.getGeneratedKeys()) {
+                userId = keys.next() ? keys.getInt(1) : 0;
+            }
+            if (userId > 0) {
+                PreparedStatement statsStmt = lease.prepare("INSERT IGNORE INTO user_stats (user_id) VALUES (?)");
+                statsStmt.setInt(1, userId);
+                statsStmt.executeUpdate();
+            }
+            conn.commit();
+            return userId;
         }
-        
-        System.out.println("[DEBUG DB] Username is available, inserting new user");
-        // Thêm user mới vào database
-        String insertQuery = "INSERT INTO users (username, password, points, status) VALUES (?, ?, 0, 'offline')";
-        PreparedStatement insertStmt = conn.prepareStatement(insertQuery);
-        insertStmt.setString(1, username);
-        insertStmt.setString(2, password);
-        System.out.println("[DEBUG DB] Executing INSERT query");
-        int result = insertStmt.executeUpdate();
-        System.out.println("[DEBUG DB] INSERT result: " + result + " rows affected");
-        
-        return result > 0;
     }
     
     // Phương thức đăng nhập
     public Pair<User, Boolean> authenticate(String username, String password) throws SQLException {
-        String query = "SELECT * FROM users WHERE username = ? AND password = ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setString(1, username);
-        stmt.setString(2, password);
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-            User authenticatedUser = new User(
-                    rs.getInt("id"),
-                    rs.getString("username"),
-                    rs.getInt("points"),
-                    rs.getString("status"));
-            Boolean isOffline = rs.getString("status").equals("offline");
-            return new Pair<>(authenticatedUser, isOffline);
+        try (ConnectionPool.Lease lease = pool.borrow("authenticate")) {
+            String query = "SELECT * FROM users WHERE username = ? AND password = ?";
+            PreparedStatement stmt = lease.prepare(query);
+            stmt.setString(1, username);
+            stmt.setString(2, password);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    User authenticatedUser = new User(
+                            rs.getInt("id"),
+                            rs.getString("username"),
+                            rs.getInt("points"),
+                            rs.getString("status"));
+                    Boolean isOffline = rs.getString("status").equals("offline");
+                    return new Pair<>(authenticatedUser, isOffline);
 
+                }
+            }
+            return new Pair<>(null, null);
         }
-        return new Pair<>(null, null);
     }
 
     // Cập nhật trạng thái người dùng
     public void updateUserStatus(int userId, String status) throws SQLException {
-        String query = "UPDATE users SET status = ? WHERE id = ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setString(1, status);
-        stmt.setInt(2, userId);
-        stmt.executeUpdate();
+        try (ConnectionPool.Lease lease = pool.borrow("updateUserStatus")) {
+            String query = "UPDATE users SET status = ? WHERE id = ?";
+            PreparedStatement stmt = lease.prepare(query);
+            stmt.setString(1, status);
+            stmt.setInt(2, userId);
+            stmt.executeUpdate();
+        }
     }
     
+    // Ghi trạng thái qua bộ gộp: nhiều lần đổi của cùng user chỉ ghi giá trị cuối
+    public void queueUserStatus(int userId, String status) {
+        statusWriter.enqueue(userId, status);
+    }
+
+    // Ghi nhiều trạng thái user trong một batch
+    void updateUserStatusBatch(Map<Integer, String> statuses) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow("updateUserStatusBatch")) {
+            String query = "UPDATE users SET status = ? WHERE id = ?";
+            PreparedStatement stmt = lease.prepare(query);
+            try {
+                for (Map.Entry<Integer, String> e : statuses.entrySet()) {
+                    stmt.setString(1, e.getValue());
+                    stmt.setInt(2, e.getKey());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            } finally {
+                stmt.clearBatch();
+            }
+        }
+    }
+
+    UserStatusWriter getStatusWriter() {
+        return statusWriter;
+    }
+
     // Reset tất cả users về offline (dùng khi server khởi động)
     public void resetAllUsersStatus() throws SQLException {
-        String query = "UPDATE users SET status = 'offline' WHERE status != 'offline'";
-        Statement stmt = conn.createStatement();
-        stmt.executeUpdate(query);
+        try (ConnectionPool.Lease lease = pool.borrow("resetAllUsersStatus")) {
+            String query = "UPDATE users SET status = 'offline' WHERE status != 'offline'";
+            lease.prepare(query).executeUpdate();
+        }
     }
 
     // Lấy danh sách người chơi
     public List<User> getUsers() throws SQLException {
-        List<User> users = new ArrayList<>();
-        String query = "SELECT * FROM users";
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery(query);
-        while (rs.next()) {
-            users.add(new User(
-                    rs.getInt("id"),
-                    rs.getString("username"),
-                    rs.getInt("points"),
-                    rs.getString("status")));
+        try (ConnectionPool.Lease lease = pool.borrow("getUsers")) {
+            List<User> users = new ArrayList<>();
+            String query = "SELECT * FROM users";
+            try (ResultSet rs = lease.prepare(query).executeQuery()) {
+                while (rs.next()) {
+                    users.add(new User(
+                            rs.getInt("id"),
+                            rs.getString("username"),
+                            rs.getInt("points"),
+                            rs.getString("status")));
+                }
+            }
+            return users;
+        }
+    }
+
+    // Danh bạ user cho bộ nhớ đệm của server: chỉ lấy các cột cần, không lấy mật khẩu
+    public List<User> getUserDirectory() throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow("getUserDirectory")) {
+            List<User> users = new ArrayList<>();
+            String query = "SELECT id, username, points FROM users";
+            try (ResultSet rs = lease.prepare(query).executeQuery()) {
+                while (rs.next()) {
+                    users.add(new User(
+                            rs.getInt("id"),
+                            rs.getString("username"),
+                            rs.getInt("points"),
+                            "offline"));
+                }
+            }
+            return users;
         }
-        return users;
     }
 
     // Lưu lịch sử đấu
     public int saveMatch(int player1Id, int player2Id, int winnerId) throws SQLException {
-        String query = "INSERT INTO matches (player1_id, player2_id, winner_id) VALUES (?, ?, ?)";
-        PreparedStatement stmt = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
-        stmt.setInt(1, player1Id);
-        stmt.setInt(2, player2Id);
-        if (winnerId > 0) {
-            stmt.setInt(3, winnerId);
-        } else {
-            stmt.setNull(3, Types.INTEGER);
-        }
-        stmt.executeUpdate();
-        ResultSet rs = stmt.getGeneratedKeys();
-        if (rs.next()) {
-            return rs.getInt(1);
+        try (ConnectionPool.Lease lease = pool.borrow("saveMatch")) {
+            String query = "INSERT INTO matches (player1_id, player2_id, winner_id) VALUES (?, ?, ?)";
+            PreparedStatement stmt = lease.prepare(query, Statement.RETURN_GENERATED_KEYS);
+            stmt.setInt(1, player1Id);
+            stmt.setInt(2, player2Id);
+            if (winnerId > 0) {
+                stmt.setInt(3, winnerId);
+            } else {
+                stmt.setNull(3, Types.INTEGER);
+            }
+            stmt.executeUpdate();
+            try (ResultSet rs = stmt.getGeneratedKeys()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+            return -1;
         }
-        return -1;
     }
 
     // Cập nhật người chiến thắng vào lịch sử đấu
     public void updateMatchWinner(int matchId, int winnerId, String endReason) throws SQLException {
-        String query = "UPDATE matches SET winner_id = ?, end_reason = ? WHERE id = ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, winnerId);
-        stmt.setString(2, endReason);
-        stmt.setInt(3, matchId);
-        stmt.executeUpdate();
+        try (ConnectionPool.Lease lease = pool.borrow("updateMatchWinner")) {
+            String query = "UPDATE matches SET winner_id = ?, end_reason = ? WHERE id = ?";
+            PreparedStatement stmt = lease.prepare(query);
+            stmt.setInt(1, winnerId);
+            stmt.setString(2, endReason);
+            stmt.setInt(3, matchId);
+            stmt.executeUpdate();
+        }
     }
 
     // Cập nhật điểm số
+    // Cộng điểm và chép điểm mới sang user_stats trong cùng một transaction
     public void updateUserPoints(int userId, int points) throws SQLException {
-        String query = "UPDATE users SET points = points + ? WHERE id = ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, points);
-        stmt.setInt(2, userId);
-        stmt.executeUpdate();
+        try (ConnectionPool.Lease lease = pool.borrow("updateUserPoints")) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            String query = "UPDATE users SET points = points + ? WHERE id = ?";
+            PreparedStatement stmt = lease.prepare(query);
+            stmt.setInt(1, points);
+            stmt.setInt(2, userId);
+            stmt.executeUpdate();
+            PreparedStatement statsStmt = lease.prepare(SYNC_STATS_POINTS);
+            statsStmt.setInt(1, userId);
+            statsStmt.executeUpdate();
+            conn.commit();
+        }
     }
 
+    // Lấy điểm từ users (nguồn chính) nên dòng user_stats bị thiếu hay lệch cũng tự khớp lại
+    private static final String SYNC_STATS_POINTS = "INSERT INTO user_stats (user_id, points) "
+            + "SELECT id, points FROM users WHERE id = ? "
+            + "ON DUPLICATE KEY UPDATE points = VALUES(points)";
+
+    // Cộng dồn bàn thắng/bàn cứu cho một user
+    private static final String ADD_STATS_GOALS = "INSERT INTO user_stats (user_id, goals_scored, goals_saved) "
+            + "VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE "
+            + "goals_scored = goals_scored + VALUES(goals_scored), goals_saved = goals_saved + VALUES(goals_saved)";
+
     // Phương thức lưu chi tiết trận đấu
     public void saveMatchDetails(int matchId, int round, int shooterId, int goalkeeperId, String shooterDirection,
             String goalkeeperDirection, String result) throws SQLException {
-        String query = "INSERT INTO match_details (match_id, round, shooter_id, goalkeeper_id, shooter_direction, goalkeeper_direction, result) VALUES (?, ?, ?, ?, ?, ?, ?)";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, matchId);
-        stmt.setInt(2, round);
-        stmt.setInt(3, shooterId);
-        stmt.setInt(4, goalkeeperId);
-        stmt.setString(5, shooterDirection);
-        stmt.setString(6, goalkeeperDirection);
-        stmt.setString(7, result);
-        stmt.executeUpdate();
+        try (ConnectionPool.Lease lease = pool.borrow("saveMatchDetails")) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            String query = "INSERT INTO match_details (match_id, round, shooter_id, goalkeeper_id, shooter_direction, goalkeeper_direction, result) VALUES (?, ?, ?, ?, ?, ?, ?)";
+            PreparedStatement stmt = lease.prepare(query);
+            stmt.setInt(1, matchId);
+            stmt.setInt(2, round);
+            stmt.setInt(3, shooterId);
+            stmt.setInt(4, goalkeeperId);
+            stmt.setString(5, shooterDirection);
+            stmt.setString(6, goalkeeperDirection);
+            stmt.setString(7, result);
+            stmt.executeUpdate();
+            // Ghi bàn tính cho người sút, sút hỏng tính một lần cứu thua cho thủ môn
+            boolean goal = "win".equals(result);
+            PreparedStatement statsStmt = lease.prepare(ADD_STATS_GOALS);
+            statsStmt.setInt(1, goal ? shooterId : goalkeeperId);
+            statsStmt.setInt(2, goal ? 1 : 0);
+            statsStmt.setInt(3, goal ? 0 : 1);
+            statsStmt.executeUpdate();
+            conn.commit();
+        }
+    }
+
+    // Đưa chi tiết lượt sút vào hàng đợi ghi nền (không chờ DB)
+    public void queueMatchDetails(int matchId, int round, int shooterId, int goalkeeperId, String shooterDirection,
+            String goalkeeperDirection, String result, TraceContext trace) {
+        kickWriter.enqueue(new MatchDetailsWriter.Kick(matchId, round, shooterId, goalkeeperId,
+                shooterDirection, goalkeeperDirection, result, trace));
+    }
+
+    // Hoàn tất khi mọi lượt sút đã xếp hàng của trận đã được ghi (do thread ghi nền hoàn tất, không chặn
+    // người gọi); giá trị là số lượt sút không ghi được kể cả sau khi thử lại
+    public CompletableFuture<Integer> matchDetailsWritten(int matchId) {
+        return kickWriter.written(matchId);
+    }
+
+    // Ghi nhiều dòng match_details trong một batch và một transaction
+    void saveMatchDetailsBatch(List<MatchDetailsWriter.Kick> kicks) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow("saveMatchDetailsBatch")) {
+            Connection conn = lease.connection();
+            String query = "INSERT INTO match_details (match_id, round, shooter_id, goalkeeper_id, shooter_direction, goalkeeper_direction, result) VALUES (?, ?, ?, ?, ?, ?, ?)";
+            PreparedStatement stmt = lease.prepare(query);
+            conn.setAutoCommit(false);
+            try {
+                for (MatchDetailsWriter.Kick kick : kicks) {
+                    stmt.setInt(1, kick.matchId);
+                    stmt.setInt(2, kick.round);
+                    stmt.setInt(3, kick.shooterId);
+                    stmt.setInt(4, kick.goalkeeperId);
+                    stmt.setString(5, kick.shooterDirection);
+                    stmt.setString(6, kick.goalkeeperDirection);
+                    stmt.setString(7, kick.result);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                addStatsBatch(lease, kicks);
+                conn.commit();
+            } finally {
+                // Khi trả connection, pool rollback phần dang dở và bật lại autocommit
+                stmt.clearBatch();
+            }
+        }
+    }
+
+    // Gộp các lượt sút theo user rồi cộng vào user_stats; sắp theo id để các transaction khóa dòng cùng thứ tự
+    private void addStatsBatch(ConnectionPool.Lease lease, List<MatchDetailsWriter.Kick> kicks) throws SQLException {
+        TreeMap<Integer, int[]> totals = new TreeMap<>();
+        for (MatchDetailsWriter.Kick kick : kicks) {
+            if ("win".equals(kick.result)) {
+                totals.computeIfAbsent(kick.shooterId, id -> new int[2])[0]++;
+            } else {
+                totals.computeIfAbsent(kick.goalkeeperId, id -> new int[2])[1]++;
+            }
+        }
+        PreparedStatement statsStmt = lease.prepare(ADD_STATS_GOALS);
+        try {
+            for (Map.Entry<Integer, int[]> e : totals.entrySet()) {
+                statsStmt.setInt(1, e.getKey());
+                statsStmt.setInt(2, e.getValue()[0]);
+                statsStmt.setInt(3, e.getValue()[1]);
+                statsStmt.addBatch();
+            }
+            statsStmt.executeBatch();
+        } finally {
+            statsStmt.clearBatch();
+        }
+    }
+
+    MatchDetailsWriter getKickWriter() {
+        return kickWriter;
     }
 
     // Lấy lịch sử đấu theo match ID
     public List<MatchDetails> getMatchDetails(int matchId) throws SQLException {
-        List<MatchDetails> detailsList = new ArrayList<>();
-        String query = "SELECT *, timestamp AS time FROM match_details WHERE match_id = ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, matchId);
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            detailsList.add(new MatchDetails(
-                    rs.getInt("id"),
-                    rs.getInt("match_id"),
-                    rs.getInt("round"),
-                    rs.getInt("shooter_id"),
-                    rs.getInt("goalkeeper_id"),
-                    rs.getString("shooter_direction"),
-                    rs.getString("goalkeeper_direction"),
-                    rs.getString("result"),
-                    rs.getTimestamp("time")));
-        }
-        if (detailsList.isEmpty()) {
-            // Kiểm tra lý do kết thúc trận đấu
-            String matchQuery = "SELECT winner_id, player1_id, player2_id, end_reason FROM matches WHERE id = ?";
-            PreparedStatement matchStmt = conn.prepareStatement(matchQuery);
-            matchStmt.setInt(1, matchId);
-            ResultSet matchRs = matchStmt.executeQuery();
-            if (matchRs.next()) {
-                String endReason = matchRs.getString("end_reason");
-                int winnerId = matchRs.getInt("winner_id");
-                int player1Id = matchRs.getInt("player1_id");
-                int player2Id = matchRs.getInt("player2_id");
-                if ("player_quit".equals(endReason)) {
-                    // Tạo MatchDetails để hiển thị lý do
-                    int quitterId = (winnerId == player1Id) ? player2Id : player1Id;
+        try (ConnectionPool.Lease lease = pool.borrow("getMatchDetails")) {
+            List<MatchDetails> detailsList = new ArrayList<>();
+            String query = "SELECT *, timestamp AS time FROM match_details WHERE match_id = ?";
+            PreparedStatement stmt = lease.prepare(query);
+            stmt.setInt(1, matchId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
                     detailsList.add(new MatchDetails(
-                            0, // id
-                            matchId,
-                            0, // round
-                            quitterId,
-                            0, // goalkeeperId
-                            null,
-                            null,
-                            "Player quit",
-                            null));
+                            rs.getInt("id"),
+                            rs.getInt("match_id"),
+                            rs.getInt("round"),
+                            rs.getInt("shooter_id"),
+                            rs.getInt("goalkeeper_id"),
+                            rs.getString("shooter_direction"),
+                            rs.getString("goalkeeper_direction"),
+                            rs.getString("result"),
+                            rs.getTimestamp("time")));
                 }
             }
+            if (detailsList.isEmpty()) {
+                // Kiểm tra lý do kết thúc trận đấu
+                String matchQuery = "SELECT winner_id, player1_id, player2_id, end_reason FROM matches WHERE id = ?";
+                PreparedStatement matchStmt = lease.prepare(matchQuery);
+                matchStmt.setInt(1, matchId);
+                try (ResultSet matchRs = matchStmt.executeQuery()) {
+                    if (matchRs.next()) {
+                        String endReason = matchRs.getString("end_reason");
+                        int winnerId = matchRs.getInt("winner_id");
+                        int player1Id = matchRs.getInt("player1_id");
+                        int player2Id = matchRs.getInt("player2_id");
+                        if ("player_quit".equals(endReason)) {
+                            // Tạo MatchDetails để hiển thị lý do
+                            int quitterId = (winnerId == player1Id) ? player2Id : player1Id;
+                            detailsList.add(new MatchDetails(
+                                    0, // id
+                                    matchId,
+                                    0, // round
+                                    quitterId,
+                                    0, // goalkeeperId
+                                    null,
+                                    null,
+                                    "Player quit",
+                                    null));
+                        }
+                    }
+                }
+            }
+            return detailsList;
         }
-        return detailsList;
     }
 
     // Các phương thức khác như lấy lịch sử đấu, bảng xếp hạng, v.v.
+    // Đọc và sắp xếp hoàn toàn trên user_stats (theo idx_user_stats_rank), users chỉ để lấy tên và trạng thái.
+    // Mỗi user có một dòng user_stats từ lúc đăng ký, điểm được chép sang trong updateUserPoints
+    private static final String LEADERBOARD_QUERY = "SELECT u.id, u.username, s.points, u.status, " +
+            "s.goals_scored, s.goals_saved " +
+            "FROM user_stats s " +
+            "JOIN users u ON u.id = s.user_id " +
+            "ORDER BY s.points DESC, s.goals_scored DESC, s.goals_saved DESC";
+
     public List<User> getLeaderboard() throws SQLException {
-        List<User> users = new ArrayList<>();
-        // Query để tính số bàn thắng ghi được và số bàn bắt được
-        String query = "SELECT u.id, u.username, u.points, u.status, " +
-                "COALESCE(goals_scored.count, 0) AS goals_scored, " +
-                "COALESCE(goals_saved.count, 0) AS goals_saved " +
-                "FROM users u " +
-                "LEFT JOIN ( " +
-                "    SELECT shooter_id AS user_id, COUNT(*) AS count " +
-                "    FROM match_details " +
-                "    WHERE result = 'win' " +
-                "    GROUP BY shooter_id " +
-                ") AS goals_scored ON u.id = goals_scored.user_id " +
-                "LEFT JOIN ( " +
-                "    SELECT goalkeeper_id AS user_id, COUNT(*) AS count " +
-                "    FROM match_details " +
-                "    WHERE result = 'lose' " +
-                "    GROUP BY goalkeeper_id " +
-                ") AS goals_saved ON u.id = goals_saved.user_id " +
-                "ORDER BY u.points DESC, goals_scored DESC, goals_saved DESC";
+        try (ConnectionPool.Lease lease = pool.borrow("getLeaderboard")) {
+            List<User> users = new ArrayList<>();
+            // Query để tính số bàn thắng ghi được và số bàn bắt được
+            String query = LEADERBOARD_QUERY;
         
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery(query);
-        while (rs.next()) {
-            User user = new User(
-                    rs.getInt("id"),
-                    rs.getString("username"),
-                    rs.getInt("points"),
-                    rs.getString("status"));
-            // Lưu stats vào User object bằng cách thêm vào một map hoặc tạo UserStats
-            // Tạm thời chỉ trả về User, sẽ cần tạo UserStats class
-            users.add(user);
+            try (ResultSet rs = lease.prepare(query).executeQuery()) {
+                while (rs.next()) {
+                    User user = new User(
+                            rs.getInt("id"),
+                            rs.getString("username"),
+                            rs.getInt("points"),
+                            rs.getString("status"));
+                    // Lưu stats vào User object bằng cách thêm vào một map hoặc tạo UserStats
+                    // Tạm thời chỉ trả về User, sẽ cần tạo UserStats class
+                    users.add(user);
+                }
+            }
+            return users;
         }
-        return users;
     }
     
     // Phương thức mới để lấy leaderboard với stats
     public List<common.UserStats> getLeaderboardWithStats() throws SQLException {
-        List<common.UserStats> statsList = new ArrayList<>();
-        String query = "SELECT u.id, u.username, u.points, u.status, " +
-                "COALESCE(goals_scored.count, 0) AS goals_scored, " +
-                "COALESCE(goals_saved.count, 0) AS goals_saved " +
-                "FROM users u " +
-                "LEFT JOIN ( " +
-                "    SELECT shooter_id AS user_id, COUNT(*) AS count " +
-                "    FROM match_details " +
-                "    WHERE result = 'win' " +
-                "    GROUP BY shooter_id " +
-                ") AS goals_scored ON u.id = goals_scored.user_id " +
-                "LEFT JOIN ( " +
-                "    SELECT goalkeeper_id AS user_id, COUNT(*) AS count " +
-                "    FROM match_details " +
-                "    WHERE result = 'lose' " +
-                "    GROUP BY goalkeeper_id " +
-                ") AS goals_saved ON u.id = goals_saved.user_id " +
-                "ORDER BY u.points DESC, goals_scored DESC, goals_saved DESC";
+        try (ConnectionPool.Lease lease = pool.borrow("getLeaderboardWithStats")) {
+            List<common.UserStats> statsList = new ArrayList<>();
+            String query = LEADERBOARD_QUERY;
         
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery(query);
-        while (rs.next()) {
-            User user = new User(
-                    rs.getInt("id"),
-                    rs.getString("username"),
-                    rs.getInt("points"),
-                    rs.getString("status"));
-            int goalsScored = rs.getInt("goals_scored");
-            int goalsSaved = rs.getInt("goals_saved");
-            statsList.add(new common.UserStats(user, goalsScored, goalsSaved));
+            try (ResultSet rs = lease.prepare(query).executeQuery()) {
+                while (rs.next()) {
+                    User user = new User(
+                            rs.getInt("id"),
+                            rs.getString("username"),
+                            rs.getInt("points"),
+                            rs.getString("status"));
+                    int goalsScored = rs.getInt("goals_scored");
+                    int goalsSaved = rs.getInt("goals_saved");
+                    statsList.add(new common.UserStats(user, goalsScored, goalsSaved));
+                }
+            }
+            return statsList;
         }
-        return statsList;
     }
 
     // Lấy lịch sử đấu chi tiết theo UserID
     public List<MatchDetails> getUserMatchHistory(int userId) throws SQLException {
-        List<MatchDetails> history = new ArrayList<>();
-        String query = "SELECT md.*, md.timestamp AS time FROM match_details md "
-                + "JOIN matches m ON md.match_id = m.id "
-                + "WHERE m.player1_id = ? OR m.player2_id = ? ORDER BY md.match_id DESC, md.round ASC";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, userId);
-        stmt.setInt(2, userId);
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            history.add(new MatchDetails(
-                    rs.getInt("id"),
-                    rs.getInt("match_id"),
-                    rs.getInt("round"),
-                    rs.getInt("shooter_id"),
-                    rs.getInt("goalkeeper_id"),
-                    rs.getString("shooter_direction"),
-                    rs.getString("goalkeeper_direction"),
-                    rs.getString("result"),
-                    rs.getTimestamp("time") // Lấy cột timestamp
-            ));
+        try (ConnectionPool.Lease lease = pool.borrow("getUserMatchHistory")) {
+            List<MatchDetails> history = new ArrayList<>();
+            String query = "SELECT md.*, md.timestamp AS time FROM match_details md "
+                    + "JOIN matches m ON md.match_id = m.id "
+                    + "WHERE m.player1_id = ? OR m.player2_id = ? ORDER BY md.match_id DESC, md.round ASC";
+            PreparedStatement stmt = lease.prepare(query);
+            stmt.setInt(1, userId);
+            stmt.setInt(2, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    history.add(new MatchDetails(
+                            rs.getInt("id"),
+                            rs.getInt("match_id"),
+                            rs.getInt("round"),
+                            rs.getInt("shooter_id"),
+                            rs.getInt("goalkeeper_id"),
+                            rs.getString("shooter_direction"),
+                            rs.getString("goalkeeper_direction"),
+                            rs.getString("result"),
+                            rs.getTimestamp("time") // Lấy cột timestamp
+                    ));
+                }
+            }
+            return history;
         }
-        return history;
     }
 
     // Lấy lịch sử đấu theo UserID
     public List<Match> getUserMatches(int userId) throws SQLException {
-        List<Match> matches = new ArrayList<>();
-        String query = "SELECT m.*, m.timestamp AS time, u1.username AS player1_name, u2.username AS player2_name FROM matches m "
-                + "JOIN users u1 ON m.player1_id = u1.id "
-                + "JOIN users u2 ON m.player2_id = u2.id "
-                + "WHERE m.player1_id = ? OR m.player2_id = ? ORDER BY m.id DESC";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, userId);
-        stmt.setInt(2, userId);
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            matches.add(new Match(
-                    rs.getInt("id"),
-                    rs.getInt("player1_id"),
-                    rs.getInt("player2_id"),
-                    rs.getObject("winner_id") != null ? rs.getInt("winner_id") : null,
-                    rs.getString("player1_name"),
-                    rs.getString("player2_name"),
-                    rs.getTimestamp("time"),
-                    rs.getString("end_reason") // Thêm end_reason
-            ));
+        try (ConnectionPool.Lease lease = pool.borrow("getUserMatches")) {
+            List<Match> matches = new ArrayList<>();
+            String query = "SELECT m.*, m.timestamp AS time, u1.username AS player1_name, u2.username AS player2_name FROM matches m "
+                    + "JOIN users u1 ON m.player1_id = u1.id "
+                    + "JOIN users u2 ON m.player2_id = u2.id "
+                    + "WHERE m.player1_id = ? OR m.player2_id = ? ORDER BY m.id DESC";
+            PreparedStatement stmt = lease.prepare(query);
+            stmt.setInt(1, userId);
+            stmt.setInt(2, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    matches.add(new Match(
+                            rs.getInt("id"),
+                            rs.getInt("player1_id"),
+                            rs.getInt("player2_id"),
+                            rs.getObject("winner_id") != null ? rs.getInt("winner_id") : null,
+                            rs.getString("player1_name"),
+                            rs.getString("player2_name"),
+                            rs.getTimestamp("time"),
+                            rs.getString("end_reason") // Thêm end_reason
+                    ));
+                }
+            }
+            return matches;
         }
-        return matches;
     }
 
 }
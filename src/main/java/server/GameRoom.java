@@ -1,16 +1,37 @@
 package server;
 
 import common.Message;
+import common.TraceContext;
+import common.Tracer;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Một trận đấu giữa hai người chơi, chạy theo kiểu actor: mọi sự kiện (nước đi của client,
+ * hết giờ, thoát trận) được đưa vào hộp thư và xử lý lần lượt trên executor dùng chung của server.
+ * Trạng thái của phòng chỉ được đọc/ghi trong hộp thư nên không cần khóa, và không có khóa nào
+ * bị giữ trong lúc gửi message hay gọi DB. Các lệnh JDBC (ghi kết quả, cộng điểm, tạo trận chơi lại)
+ * chạy trên thread nền của DatabaseManager, không chạy trên thread của executor: kết quả được đưa lại
+ * vào hộp thư như một sự kiện, còn các sự kiện đến trong lúc chờ được giữ lại và chạy tiếp theo
+ * đúng thứ tự sau bước đó.
+ */
 public class GameRoom {
 
+    // Một sự kiện của phòng, chạy trong hộp thư
+    private interface Event {
+        void run() throws SQLException, IOException;
+    }
+
+    // Bước chạy trong hộp thư khi thao tác DB trả về; value là null nếu thao tác lỗi
+    private interface Continuation<T> {
+        void run(T value) throws SQLException, IOException;
+    }
+
     private ClientHandler shooterHandler;
     private ClientHandler goalkeeperHandler;
     private DatabaseManager dbManager;
@@ -20,21 +41,40 @@ public class GameRoom {
     private int player1Score; // Điểm của người chơi 1 (originalPlayer1)
     private int player2Score; // Điểm của người chơi 2 (originalPlayer2)
     private int currentRound;
-    private final int MAX_ROUNDS = 5; // 5 rounds đầu tiên
-    private final int WIN_SCORE = 3;
     private String shooterDirection;
     private Boolean shooterWantsRematch = null;
     private Boolean goalkeeperWantsRematch = null;
     // Thời gian chờ cho mỗi lượt (ví dụ: 15 giây)
     private final int TURN_TIMEOUT = 15;
+    // Server tự chốt lượt sau TURN_TIMEOUT + khoảng này, để timeout do client gửi (nếu có) đến trước
+    private static final long TURN_GRACE_MILLIS = 1000;
+    // Bỏ lượt liên tiếp quá số lần này thì xử thua, để phòng bị bỏ rơi không chạy mãi ở sudden death
+    private static final int MAX_CONSECUTIVE_TIMEOUTS = 3;
+    // Không trả lời câu hỏi chơi lại trong thời gian này thì coi như từ chối
+    private static final int PLAY_AGAIN_TIMEOUT = 30;
+    // Điểm cộng cho người thắng trận
+    private static final int WIN_POINTS = 3;
 
     private boolean isShooter = true;
     private boolean isKeeper = true;
-    private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final TimingWheel timer;
+    private final SerialExecutor mailbox;
 
     // Biến lưu trữ Future của nhiệm vụ chờ
-    private ScheduledFuture<?> shooterTimeoutTask;
-    private ScheduledFuture<?> goalkeeperTimeoutTask;
+    private TimingWheel.Timeout shooterTimeoutTask;
+    private TimingWheel.Timeout goalkeeperTimeoutTask;
+    private TimingWheel.Timeout playAgainTimeoutTask;
+    // Tăng mỗi lần đặt hẹn giờ lượt mới; hẹn giờ cũ chạy muộn thấy lệch số thì bỏ qua
+    private int turnSeq;
+    // Số lượt bỏ liên tiếp của originalPlayer1/originalPlayer2
+    private int player1IdleTurns;
+    private int player2IdleTurns;
+    // Phòng đã giải tán (hai người chơi đã về màn hình chính)
+    private boolean closed;
+    // Khác null khi đang chờ DB ghi xong lượt sút của trận: sự kiện mới được giữ ở đây
+    private List<Event> deferred;
+    // Thời điểm mở phòng (System.nanoTime()), để đo thời gian sống của phòng
+    private final long openedAt;
 
     // Biến để kiểm tra xem người chơi đã thực hiện hành động chưa
     private boolean shooterActionReceived = false;
@@ -42,17 +82,18 @@ public class GameRoom {
 
     private String goalkeeperDirection;
     
-    // Biến cho sudden death mode
-    private boolean inSuddenDeath = false;
-    private boolean firstPlayerGoalInRound = false; // Kết quả của người sút đầu tiên trong round
-    private boolean secondPlayerGoalInRound = false; // Kết quả của người sút thứ hai trong round
-    private boolean firstPlayerFinished = false; // Đã xử lý xong lượt sút của người đầu tiên trong round
+    // Trạng thái loạt sút (round chính thức/sudden death, lượt trong round), xem ShootoutEngine
+    private int matchState = ShootoutEngine.START;
     private ClientHandler originalPlayer1; // Lưu người chơi 1 ban đầu
     private ClientHandler originalPlayer2; // Lưu người chơi 2 ban đầu
 
     public GameRoom(ClientHandler player1, ClientHandler player2, DatabaseManager dbManager) throws SQLException {
         this.dbManager = dbManager;
+        this.timer = player1.getServer().getRoomTimer();
+        this.mailbox = new SerialExecutor(player1.getServer().getRoomExecutor());
         this.matchId = dbManager.saveMatch(player1.getUser().getId(), player2.getUser().getId(), 0);
+        this.openedAt = System.nanoTime();
+        player1.getServer().roomOpened();
         this.shooterScore = 0;
         this.goalkeeperScore = 0;
         this.player1Score = 0;
@@ -73,15 +114,78 @@ public class GameRoom {
         }
     }
 
+    // Đưa sự kiện vào hộp thư; lỗi của một sự kiện chỉ được ghi log, không làm dừng phòng
+    private void post(Event event) {
+        mailbox.execute(() -> dispatch(event));
+    }
+
+    private void dispatch(Event event) {
+        if (deferred != null) {
+            deferred.add(event);
+            return;
+        }
+        try {
+            event.run();
+        } catch (SQLException | IOException | RuntimeException e) {
+            Log.error("room event failed", e, "match", matchId);
+        }
+    }
+
+    // Chạy then trong hộp thư khi future xong. Trong lúc chờ, phòng không giữ thread nào;
+    // sự kiện mới bị hoãn rồi chạy lại theo thứ tự sau then
+    private <T> void await(CompletableFuture<T> future, Continuation<T> then) {
+        deferred = new ArrayList<>();
+        int match = matchId;
+        future.whenComplete((value, error) -> mailbox.execute(() -> {
+            if (error != null) {
+                Log.error("room db call failed", error, "match", match);
+            }
+            List<Event> waiting = deferred;
+            deferred = null;
+            dispatch(() -> then.run(error == null ? value : null));
+            for (Event event : waiting) {
+                dispatch(event);
+            }
+        }));
+    }
+
+    // Chốt trận trong DB: chờ mọi lượt sút của trận được ghi, rồi cộng điểm người thắng và ghi kết quả.
+    // then luôn chạy, kể cả khi DB lỗi, để người chơi không bị kẹt trong phòng
+    private void recordResult(int winnerId, String endReason, Event then) {
+        int match = matchId;
+        CompletableFuture<Boolean> saved = dbManager.matchDetailsWritten(match).thenCompose(lost -> {
+            if (lost > 0) {
+                Log.error("match details lost", "match", match, "rows", lost);
+            }
+            return dbManager.submit(() -> {
+                if (winnerId != 0) {
+                    dbManager.updateUserPoints(winnerId, WIN_POINTS);
+                }
+                dbManager.updateMatchWinner(match, winnerId, endReason);
+                return Boolean.TRUE;
+            });
+        });
+        await(saved, ok -> {
+            // Danh bạ và bảng xếp hạng của mọi node chỉ được cộng khi DB đã cộng
+            if (ok != null && winnerId != 0) {
+                originalPlayer1.getServer().addPoints(winnerId, WIN_POINTS);
+            }
+            then.run();
+        });
+    }
+
     public void startMatch() {
+        post(this::beginMatch);
+    }
+
+    private void beginMatch() {
         try {
             // update ingame status for both player
             shooterHandler.getUser().setStatus("ingame");
             goalkeeperHandler.getUser().setStatus("ingame");
             
-            // Khởi tạo biến cho round đầu tiên
-            firstPlayerFinished = false;
-            inSuddenDeath = false;
+            // Khởi tạo trạng thái cho round đầu tiên
+            matchState = ShootoutEngine.START;
 
             // to do gui message neu can
             String shooterMessage = "Trận đấu bắt đầu! Bạn là người sút.";
@@ -90,21 +194,20 @@ public class GameRoom {
             goalkeeperHandler.sendMessage(new Message("match_start", goalkeeperMessage));
             
             // Đợi một chút để client kịp load UI trước khi gửi your_turn
-            scheduler.schedule(() -> {
-                try {
+            int turn = turnSeq;
+            timer.schedule(() -> post(() -> {
+                if (!closed && turn == turnSeq) {
                     requestNextMove();
-                } catch (Exception e) {
-                    e.printStackTrace();
                 }
-            }, 500, TimeUnit.MILLISECONDS);
+            }), 500, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.error("room event failed", e, "match", matchId);
         }
     }
 
     private void requestNextMove() {
         try {
-            // Không kiểm tra checkEndGame() ở đây vì nó chỉ được gọi sau khi cả 2 lượt đã xong
+            // Không kiểm tra kết thúc ở đây vì ShootoutEngine đã quyết định sau lượt sút trước
             // Luôn là shooterHandler sút và goalkeeperHandler bắt
             shooterHandler.sendMessage(new Message("your_turn", TURN_TIMEOUT));
             goalkeeperHandler.sendMessage(new Message("opponent_turn", TURN_TIMEOUT));
@@ -112,33 +215,57 @@ public class GameRoom {
             shooterActionReceived = false;
             shooterDirection = null;
             goalkeeperDirection = null; // Đặt lại biến này cho lượt mới
+            armTurnTimeout(true);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.error("room event failed", e, "match", matchId);
         }
     }
 
     // Xử lý hướng sút từ người sút
-    public synchronized void handleShot(String shooterDirection, ClientHandler shooter)
-            throws SQLException, IOException {
+    public void handleShot(String shooterDirection, ClientHandler shooter, TraceContext trace) {
+        Tracer.mark(trace, "room.enter");
+        post(() -> onShot(shooterDirection, shooter, trace));
+    }
+
+    private void onShot(String shooterDirection, ClientHandler shooter, TraceContext trace) {
+        // Nước đi đến muộn sau khi đã đổi vai hoặc phòng đã giải tán
+        if (closed || shooter != shooterHandler) {
+            return;
+        }
+        Tracer.mark(trace, "room.run");
         this.shooterDirection = shooterDirection;
+        if (!shooterActionReceived) {
+            setIdleTurns(shooterHandler, 0);
+        }
         shooterActionReceived = true; // Đánh dấu đã nhận hành động từ người sút
         if (shooterTimeoutTask != null && !shooterTimeoutTask.isDone()) {
-            shooterTimeoutTask.cancel(true);
+            shooterTimeoutTask.cancel();
         }
         // Yêu cầu người bắt chọn hướng chặn
         // Luôn là goalkeeperHandler bắt và shooterHandler chờ
         goalkeeperHandler.sendMessage(new Message("goalkeeper_turn", TURN_TIMEOUT));
-        shooterHandler.sendMessage(new Message("opponent_turn", TURN_TIMEOUT));
+        // opponent_turn là trả lời trực tiếp cho cú sút, trace của người sút kết thúc ở đây
+        Tracer.mark(trace, "server.reply");
+        shooterHandler.sendMessage(new Message("opponent_turn", TURN_TIMEOUT, Tracer.reply(trace)));
 
         // Bắt đầu đếm thời gian chờ cho người bắt
         goalkeeperActionReceived = false;
-        // startGoalkeeperTimeout();
+        armTurnTimeout(false);
     }
 
     // Xử lý hướng chặn từ người bắt
-    public synchronized void handleGoalkeeper(String goalkeeperDirection, ClientHandler goalkeeper)
+    public void handleGoalkeeper(String goalkeeperDirection, ClientHandler goalkeeper, TraceContext trace) {
+        Tracer.mark(trace, "room.enter");
+        post(() -> onGoalkeeper(goalkeeperDirection, goalkeeper, trace));
+    }
+
+    private void onGoalkeeper(String goalkeeperDirection, ClientHandler goalkeeper, TraceContext trace)
             throws SQLException, IOException {
+        if (closed || goalkeeper != goalkeeperHandler) {
+            return;
+        }
+        Tracer.mark(trace, "room.run");
         if (this.shooterDirection == null) {
             // Nếu shooterDirection chưa được thiết lập, không thể xử lý
             shooterHandler.sendMessage(new Message("error", "Hướng sút chưa được thiết lập."));
@@ -146,11 +273,14 @@ public class GameRoom {
             return;
         }
         this.goalkeeperDirection = goalkeeperDirection;
+        if (!goalkeeperActionReceived) {
+            setIdleTurns(goalkeeperHandler, 0);
+        }
         goalkeeperActionReceived = true; // Đánh dấu đã nhận hành động từ người bắt
 
         // Hủy nhiệm vụ chờ của người bắt nếu còn tồn tại
         if (goalkeeperTimeoutTask != null && !goalkeeperTimeoutTask.isDone()) {
-            goalkeeperTimeoutTask.cancel(true);
+            goalkeeperTimeoutTask.cancel();
         }
 
         // Xử lý kết quả - so sánh hướng sút và hướng chặn
@@ -166,132 +296,54 @@ public class GameRoom {
         }
 
         String kick_result = (goal ? "win" : "lose") + "-" + shooterDirection + "-" + goalkeeperDirection;
+        Tracer.mark(trace, "server.reply");
         shooterHandler.sendMessage(new Message("kick_result", kick_result));
-        goalkeeperHandler.sendMessage(new Message("kick_result", kick_result));
+        goalkeeperHandler.sendMessage(new Message("kick_result", kick_result, Tracer.reply(trace)));
+        if (Log.isDebugEnabled()) {
+            Log.debug("kick", "match", matchId, "round", currentRound, "result", kick_result);
+        }
 
-        // Lưu chi tiết trận đấu vào database
-        dbManager.saveMatchDetails(matchId, currentRound,
+        // Lưu chi tiết trận đấu: đưa vào hàng đợi ghi nền, không chờ DB trước lượt tiếp theo
+        dbManager.queueMatchDetails(matchId, currentRound,
                 shooterHandler.getUser().getId(),
                 goalkeeperHandler.getUser().getId(),
-                shooterDirection, goalkeeperDirection, goal ? "win" : "lose");
-
-        if (inSuddenDeath) {
-            // Xử lý sudden death mode
-            if (!firstPlayerFinished) {
-                // Lượt 1 trong round: Người đầu tiên sút
-                firstPlayerGoalInRound = goal;
-                firstPlayerFinished = true;
-                
-                // Gửi tỷ số cập nhật
-                originalPlayer1.sendMessage(new Message("update_score",
-                        new int[] { player1Score, player2Score, currentRound }));
-                originalPlayer2.sendMessage(new Message("update_score",
-                        new int[] { player2Score, player1Score, currentRound }));
-                
-                // Chuyển sang lượt 2: Đổi vai trò để người thứ hai sút
-                shooterDirection = null;
-                goalkeeperDirection = null;
-                shooterActionReceived = false;
-                goalkeeperActionReceived = false;
-                // Đổi vai trò
-                ClientHandler temp = shooterHandler;
-                shooterHandler = goalkeeperHandler;
-                goalkeeperHandler = temp;
-                requestNextMove();
-            } else {
-                // Lượt 2 trong round: Người thứ hai sút
-                secondPlayerGoalInRound = goal;
-                
-                // Gửi tỷ số cập nhật
-                originalPlayer1.sendMessage(new Message("update_score",
-                        new int[] { player1Score, player2Score, currentRound }));
-                originalPlayer2.sendMessage(new Message("update_score",
-                        new int[] { player2Score, player1Score, currentRound }));
-                
-                // So sánh kết quả trong round này
-                // Nếu một người ghi và người kia không ghi → kết thúc ngay
-                if (firstPlayerGoalInRound != secondPlayerGoalInRound) {
-                    // Có sự khác biệt, xác định người thắng
-                    determineWinner();
-                } else {
-                    // Cả hai cùng ghi hoặc cùng trượt, tiếp tục round tiếp theo
-                    currentRound++;
-                    firstPlayerFinished = false;
-                    firstPlayerGoalInRound = false;
-                    secondPlayerGoalInRound = false;
-                    
-                    // Gửi update_score với round mới TRƯỚC KHI gọi requestNextMove
-                    originalPlayer1.sendMessage(new Message("update_score",
-                            new int[] { player1Score, player2Score, currentRound }));
-                    originalPlayer2.sendMessage(new Message("update_score",
-                            new int[] { player2Score, player1Score, currentRound }));
-                    
-                    shooterDirection = null;
-                    goalkeeperDirection = null;
-                    shooterActionReceived = false;
-                    goalkeeperActionReceived = false;
-                    // Đổi lại vai trò để người đầu tiên sút trong round mới (luân phiên)
-                    ClientHandler temp = shooterHandler;
-                    shooterHandler = goalkeeperHandler;
-                    goalkeeperHandler = temp;
-                    requestNextMove();
-                }
-            }
-        } else {
-            // Xử lý bình thường (5 rounds đầu)
-            // Gửi tỷ số cập nhật
-            originalPlayer1.sendMessage(new Message("update_score",
-                    new int[] { player1Score, player2Score, currentRound }));
-            originalPlayer2.sendMessage(new Message("update_score",
-                    new int[] { player2Score, player1Score, currentRound }));
-            
-            System.out.println("Round " + currentRound + " - firstPlayerFinished: " + firstPlayerFinished + 
-                    ", Player1: " + player1Score + ", Player2: " + player2Score);
-            
-            if (!firstPlayerFinished) {
-                // Lượt 1 trong round: Người đầu tiên sút xong
-                System.out.println("Lượt 1 trong round " + currentRound + " đã xong");
-                firstPlayerFinished = true;
-                
-                // Chuyển sang lượt 2: Đổi vai trò để người thứ hai sút
-                shooterDirection = null;
-                goalkeeperDirection = null;
-                shooterActionReceived = false;
-                goalkeeperActionReceived = false;
-                // Đổi vai trò
-                ClientHandler temp = shooterHandler;
-                shooterHandler = goalkeeperHandler;
-                goalkeeperHandler = temp;
-                requestNextMove();
-            } else {
-                // Lượt 2 trong round: Người thứ hai sút xong
-                System.out.println("Lượt 2 trong round " + currentRound + " đã xong, kết thúc round");
-                // Kết thúc round, tăng round và kiểm tra điều kiện
-                currentRound++;
-                firstPlayerFinished = false;
-                
-                if (checkEndGame()) {
-                    determineWinner();
-                } else {
-                    // Gửi update_score với round mới TRƯỚC KHI gọi requestNextMove
-                    originalPlayer1.sendMessage(new Message("update_score",
-                            new int[] { player1Score, player2Score, currentRound }));
-                    originalPlayer2.sendMessage(new Message("update_score",
-                            new int[] { player2Score, player1Score, currentRound }));
-                    
-                    // Thông báo round tiếp theo
-                    shooterDirection = null;
-                    goalkeeperDirection = null;
-                    shooterActionReceived = false;
-                    goalkeeperActionReceived = false;
-                    // Đổi lại vai trò để người đầu tiên sút trong round mới (luân phiên)
-                    ClientHandler temp = shooterHandler;
-                    shooterHandler = goalkeeperHandler;
-                    goalkeeperHandler = temp;
-                    requestNextMove();
-                }
-            }
+                shooterDirection, goalkeeperDirection, goal ? "win" : "lose", trace);
+        originalPlayer1.getServer().recordKick(
+                shooterHandler.getUser().getId(), goalkeeperHandler.getUser().getId(), goal);
+
+        // Tra bảng luật để biết bước tiếp theo
+        int transition = ShootoutEngine.next(matchState, goal);
+        matchState = ShootoutEngine.state(transition);
+        int action = ShootoutEngine.action(transition);
+
+        // Gửi tỷ số cập nhật
+        sendScore();
+        if (action == ShootoutEngine.END) {
+            determineWinner();
+            return;
+        }
+        if (action == ShootoutEngine.NEXT_ROUND) {
+            currentRound++;
+            // Gửi update_score với round mới TRƯỚC KHI gọi requestNextMove
+            sendScore();
         }
+
+        // Đổi vai cho lượt tiếp theo (người sút trước của round luôn sút trước)
+        shooterDirection = null;
+        goalkeeperDirection = null;
+        shooterActionReceived = false;
+        goalkeeperActionReceived = false;
+        ClientHandler temp = shooterHandler;
+        shooterHandler = goalkeeperHandler;
+        goalkeeperHandler = temp;
+        requestNextMove();
+    }
+
+    private void sendScore() {
+        originalPlayer1.sendMessage(new Message("update_score",
+                new int[] { player1Score, player2Score, currentRound }));
+        originalPlayer2.sendMessage(new Message("update_score",
+                new int[] { player2Score, player1Score, currentRound }));
     }
 
     private void determineWinner() throws SQLException, IOException {
@@ -309,29 +361,52 @@ public class GameRoom {
             resultMessage = "Trận đấu hòa!";
         }
 
-        if (winnerId != 0) {
-            dbManager.updateUserPoints(winnerId, 3);
-        }
-        dbManager.updateMatchWinner(matchId, winnerId, endReason);
+        cancelTurnTimeouts();
+        recordResult(winnerId, endReason, this::finishMatch);
+    }
 
+    private void finishMatch() {
         // Thông báo kết quả trận đấu cho cả hai người chơi
         originalPlayer1.sendMessage(new Message("match_result", (player1Score > player2Score) ? "win" : "lose"));
         originalPlayer2.sendMessage(new Message("match_result", (player2Score > player1Score) ? "win" : "lose"));
 
-        // Tạo một ScheduledExecutorService để trì hoãn việc gửi tin nhắn
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        scheduler.schedule(() -> {
-            // Gửi tin nhắn yêu cầu chơi lại sau 5 giây
+        // Trì hoãn việc gửi tin nhắn bằng bộ hẹn giờ dùng chung
+        int match = matchId;
+        timer.schedule(() -> post(() -> {
+            if (closed || match != matchId) {
+                return;
+            }
+            // Gửi tin nhắn yêu cầu chơi lại sau 3 giây
             shooterHandler.sendMessage(new Message("play_again_request", "Bạn có muốn chơi lại không?"));
             goalkeeperHandler.sendMessage(new Message("play_again_request", "Bạn có muốn chơi lại không?"));
-            // Đóng scheduler sau khi hoàn tất
-            scheduler.shutdown();
-        }, 3, TimeUnit.SECONDS);
+            playAgainTimeoutTask = timer.schedule(() -> post(() -> onPlayAgainDeadline(match)),
+                    PLAY_AGAIN_TIMEOUT, TimeUnit.SECONDS);
+        }), 3, TimeUnit.SECONDS);
+    }
+
+    // Hết giờ hỏi chơi lại: ai chưa trả lời thì coi như từ chối, phòng được giải tán
+    private void onPlayAgainDeadline(int match) throws SQLException, IOException {
+        if (closed || match != matchId) {
+            return;
+        }
+        if (shooterWantsRematch == null) {
+            onPlayAgainResponse(false, shooterHandler);
+        }
+        if (!closed && goalkeeperWantsRematch == null) {
+            onPlayAgainResponse(false, goalkeeperHandler);
+        }
     }
 
     // Xử lý yêu cầu chơi lại
-    public synchronized void handlePlayAgainResponse(boolean playAgain, ClientHandler responder)
+    public void handlePlayAgainResponse(boolean playAgain, ClientHandler responder) {
+        post(() -> onPlayAgainResponse(playAgain, responder));
+    }
+
+    private void onPlayAgainResponse(boolean playAgain, ClientHandler responder)
             throws SQLException, IOException {
+        if (closed) {
+            return;
+        }
         if (responder == shooterHandler) {
             shooterWantsRematch = playAgain;
         } else if (responder == goalkeeperHandler) {
@@ -345,40 +420,51 @@ public class GameRoom {
 
         // Kiểm tra nếu cả hai người chơi đã phản hồi
         if (shooterWantsRematch != null && goalkeeperWantsRematch != null) {
+            if (playAgainTimeoutTask != null) {
+                playAgainTimeoutTask.cancel();
+            }
             if (shooterWantsRematch && goalkeeperWantsRematch) {
                 // Cả hai người chơi đồng ý chơi lại
                 resetGameState();
-                startMatch();
+                // Tạo trận mới trong DB trên thread nền rồi mới bắt đầu
+                int shooterId = shooterHandler.getUser().getId();
+                int goalkeeperId = goalkeeperHandler.getUser().getId();
+                await(dbManager.submit(() -> dbManager.saveMatch(shooterId, goalkeeperId, 0)), id -> {
+                    if (id == null) {
+                        dismiss("Không tạo được trận mới. Trận đấu kết thúc.");
+                        return;
+                    }
+                    matchId = id;
+                    beginMatch();
+                });
             } else {
-                // cap nhat status "ingame" -> "online"
-                shooterHandler.getUser().setStatus("online");
-                goalkeeperHandler.getUser().setStatus("online");
-
-                dbManager.updateUserStatus(shooterHandler.getUser().getId(), "online");
-                dbManager.updateUserStatus(goalkeeperHandler.getUser().getId(), "online");
-
-                shooterHandler.getServer()
-                        .broadcast(new Message("status_update", shooterHandler.getUser().getUsername() + " is online"));
-                goalkeeperHandler.getServer().broadcast(
-                        new Message("status_update", goalkeeperHandler.getUser().getUsername() + " is online"));
-                // ------------------------------------------------------------//
-
-                // Gửi thông báo kết thúc trận đấu
-                shooterHandler.sendMessage(new Message("match_end", "Trận đấu kết thúc."));
-                goalkeeperHandler.sendMessage(new Message("match_end", "Trận đấu kết thúc."));
-
-                // Đặt lại biến
-                shooterWantsRematch = null;
-                goalkeeperWantsRematch = null;
-
-                // Đưa cả hai người chơi về màn hình chính
-                shooterHandler.clearGameRoom();
-                goalkeeperHandler.clearGameRoom();
+                dismiss("Trận đấu kết thúc.");
             }
         }
     }
 
-    private void resetGameState() throws SQLException {
+    // Giải tán phòng: cả hai người chơi về màn hình chính
+    private void dismiss(String text) {
+        // cap nhat status "ingame" -> "online"
+        shooterHandler.getServer().setUserStatus(shooterHandler.getUser(), "online");
+        goalkeeperHandler.getServer().setUserStatus(goalkeeperHandler.getUser(), "online");
+        // ------------------------------------------------------------//
+
+        // Gửi thông báo kết thúc trận đấu
+        shooterHandler.sendMessage(new Message("match_end", text));
+        goalkeeperHandler.sendMessage(new Message("match_end", text));
+
+        // Đặt lại biến
+        shooterWantsRematch = null;
+        goalkeeperWantsRematch = null;
+
+        // Đưa cả hai người chơi về màn hình chính
+        markClosed();
+        shooterHandler.clearGameRoom();
+        goalkeeperHandler.clearGameRoom();
+    }
+
+    private void resetGameState() {
         // Reset game variables
         shooterScore = 0;
         goalkeeperScore = 0;
@@ -388,12 +474,10 @@ public class GameRoom {
         shooterDirection = null;
         shooterWantsRematch = null;
         goalkeeperWantsRematch = null;
+        player1IdleTurns = 0;
+        player2IdleTurns = 0;
         
-        // Reset sudden death variables
-        inSuddenDeath = false;
-        firstPlayerFinished = false;
-        firstPlayerGoalInRound = false;
-        secondPlayerGoalInRound = false;
+        matchState = ShootoutEngine.START;
 
         // Swap shooter and goalkeeper roles for fairness
         ClientHandler temp = shooterHandler;
@@ -404,9 +488,6 @@ public class GameRoom {
         temp = originalPlayer1;
         originalPlayer1 = originalPlayer2;
         originalPlayer2 = temp;
-
-        // Create a new match in the database
-        matchId = dbManager.saveMatch(shooterHandler.getUser().getId(), goalkeeperHandler.getUser().getId(), 0);
     }
 
     // Đảm bảo rằng phương thức endMatch() tồn tại và được định nghĩa chính xác
@@ -424,7 +505,14 @@ public class GameRoom {
         }
     }
 
-    public void handlePlayerDisconnect(ClientHandler disconnectedPlayer) throws SQLException, IOException {
+    public void handlePlayerDisconnect(ClientHandler disconnectedPlayer) {
+        post(() -> onPlayerDisconnect(disconnectedPlayer));
+    }
+
+    private void onPlayerDisconnect(ClientHandler disconnectedPlayer) throws SQLException, IOException {
+        if (closed) {
+            return;
+        }
         String resultMessageToWinner = "Đối thủ đã thoát. Bạn thắng trận đấu!";
         String resultMessageToLoser = "Bạn đã thoát. Bạn thua trận đấu!";
         int winnerId = 0;
@@ -440,23 +528,20 @@ public class GameRoom {
         shooterWantsRematch = false;
         goalkeeperWantsRematch = false;
         winnerId = otherPlayer.getUser().getId();
+        closeRoomTimers();
 
-        if (winnerId != 0) {
-            dbManager.updateUserPoints(winnerId, 3);
-            dbManager.updateMatchWinner(matchId, winnerId, endReason);
-        }
+        ClientHandler winner = otherPlayer;
+        recordResult(winnerId, endReason, () -> finishAfterDisconnect(disconnectedPlayer, winner,
+                resultMessageToWinner, resultMessageToLoser));
+    }
 
+    private void finishAfterDisconnect(ClientHandler disconnectedPlayer, ClientHandler otherPlayer,
+            String resultMessageToWinner, String resultMessageToLoser) {
         // cap nhat status "ingame" -> "online"
-        otherPlayer.getUser().setStatus("online");
-        dbManager.updateUserStatus(otherPlayer.getUser().getId(), "online");
-        otherPlayer.getServer()
-                .broadcast(new Message("status_update", otherPlayer.getUser().getUsername() + " is online"));
+        otherPlayer.getServer().setUserStatus(otherPlayer.getUser(), "online");
 
         // cap nhat status "ingame" -> "offline"
-        disconnectedPlayer.getUser().setStatus("offline");
-        dbManager.updateUserStatus(disconnectedPlayer.getUser().getId(), "offline");
-        disconnectedPlayer.getServer()
-                .broadcast(new Message("status_update", disconnectedPlayer.getUser().getUsername() + " is offline"));
+        disconnectedPlayer.getServer().setUserStatus(disconnectedPlayer.getUser(), "offline");
         // -------------------------------------------------------
 
         // Gửi thông báo kết thúc trận đấu cho cả hai người chơi
@@ -478,12 +563,17 @@ public class GameRoom {
 
     }
 
-    public void handlePlayerQuit(ClientHandler quittingPlayer) throws SQLException, IOException {
-        String resultMessageToLoser = "Bạn đã thoát. Bạn thua trận đấu!";
-        String resultMessageToWinner = "Đối thủ đã thoát. Bạn thắng trận đấu!";
+    public void handlePlayerQuit(ClientHandler quittingPlayer) {
+        post(() -> onPlayerQuit(quittingPlayer, "player_quit",
+                "Bạn đã thoát. Bạn thua trận đấu!", "Đối thủ đã thoát. Bạn thắng trận đấu!"));
+    }
 
+    private void onPlayerQuit(ClientHandler quittingPlayer, String endReason, String resultMessageToLoser,
+            String resultMessageToWinner) throws SQLException, IOException {
+        if (closed) {
+            return;
+        }
         int winnerId = 0;
-        String endReason = "player_quit";
         ClientHandler otherPlayer = null;
 
         if (quittingPlayer == shooterHandler) {
@@ -499,23 +589,18 @@ public class GameRoom {
         }
 
         winnerId = otherPlayer.getUser().getId();
+        closeRoomTimers();
 
-        if (winnerId != 0) {
-            dbManager.updateUserPoints(winnerId, 3);
-            dbManager.updateMatchWinner(matchId, winnerId, endReason);
-        }
+        ClientHandler winner = otherPlayer;
+        recordResult(winnerId, endReason, () -> finishAfterQuit(quittingPlayer, winner,
+                resultMessageToLoser, resultMessageToWinner));
+    }
 
+    private void finishAfterQuit(ClientHandler quittingPlayer, ClientHandler otherPlayer,
+            String resultMessageToLoser, String resultMessageToWinner) {
         // cap nhat status "ingame" -> "online"
-        shooterHandler.getUser().setStatus("online");
-        goalkeeperHandler.getUser().setStatus("online");
-
-        dbManager.updateUserStatus(shooterHandler.getUser().getId(), "online");
-        dbManager.updateUserStatus(goalkeeperHandler.getUser().getId(), "online");
-
-        shooterHandler.getServer()
-                .broadcast(new Message("status_update", shooterHandler.getUser().getUsername() + " is online"));
-        goalkeeperHandler.getServer()
-                .broadcast(new Message("status_update", goalkeeperHandler.getUser().getUsername() + " is online"));
+        shooterHandler.getServer().setUserStatus(shooterHandler.getUser(), "online");
+        goalkeeperHandler.getServer().setUserStatus(goalkeeperHandler.getUser(), "online");
         // ------------------------------------------------------------
 
         // Gửi thông báo kết thúc trận đấu cho cả hai người chơi
@@ -540,14 +625,20 @@ public class GameRoom {
         // Không cần gửi thông báo "return_to_main"
     }
 
-    public void startShooterTimeout() {
+    private void onShooterTimeout() {
         try {
-            if (checkEndGame()) {
+            if (closed) {
+                return;
+            }
+            if (ShootoutEngine.isDecided(matchState)) {
                 endMatch();
                 return;
             }
             if (!shooterActionReceived) {
                 // Người sút không thực hiện hành động trong thời gian quy định
+                if (forfeitIfIdle(shooterHandler)) {
+                    return;
+                }
                 shooterDirection = "Middle";
                 shooterActionReceived = true;
                 shooterHandler.sendMessage(
@@ -555,14 +646,11 @@ public class GameRoom {
                 goalkeeperHandler.sendMessage(new Message("opponent_timeout",
                         "Hết giờ! \nHệ thống tự chọn 'Middle' cho đối thủ."));
                 // Yêu cầu người bắt chọn hướng chặn
-                handleShot(shooterDirection, shooterHandler);
+                onShot(shooterDirection, shooterHandler, null);
 
-                // Bắt đầu đếm thời gian chờ cho người bắt
-                goalkeeperActionReceived = false;
-                // startGoalkeeperTimeout();
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.error("room event failed", e, "match", matchId);
         }
     }
 
@@ -581,40 +669,16 @@ public class GameRoom {
         return shooter.equals(goalkeeper);
     }
 
-    private boolean checkEndGame() {
-        // Nếu đang trong sudden death, không kiểm tra ở đây (đã xử lý trong handleGoalkeeper)
-        if (inSuddenDeath) {
-            return false;
-        }
-        
-        // Nếu đã qua 5 rounds và tỷ số hòa, chuyển sang sudden death
-        if (currentRound > MAX_ROUNDS && player1Score == player2Score) {
-            inSuddenDeath = true;
-            firstPlayerFinished = false;
-            firstPlayerGoalInRound = false;
-            secondPlayerGoalInRound = false;
-            // Không kết thúc, tiếp tục với sudden death
-            return false;
-        }
-        
-        // Kiểm tra các điều kiện thắng khác
-        int scoreDifference = Math.abs(player1Score - player2Score);
-        int roundsPlayed = currentRound - 1; // currentRound đã được tăng lên
-        int turnsLeftPlayer1 = (player1Score >= WIN_SCORE) ? 0 : WIN_SCORE - (roundsPlayed / 2);
-        int turnsLeftPlayer2 = (player2Score >= WIN_SCORE) ? 0 : WIN_SCORE - (roundsPlayed / 2);
-        
-        System.out.println("Round: " + currentRound + ", Player1: " + player1Score + ", Player2: " + player2Score);
-        
-        return ((turnsLeftPlayer1 < scoreDifference) && player1Score < player2Score) ||
-                ((turnsLeftPlayer2 < scoreDifference) && player2Score < player1Score)
-                || ((currentRound > MAX_ROUNDS || player1Score >= WIN_SCORE || player2Score >= WIN_SCORE)
-                        && player1Score != player2Score);
-    }
-
-    public void startGoalkeeperTimeout() {
+    private void onGoalkeeperTimeout() {
         try {
+            if (closed) {
+                return;
+            }
             if (!goalkeeperActionReceived) {
                 // Người bắt không thực hiện hành động trong thời gian quy định
+                if (forfeitIfIdle(goalkeeperHandler)) {
+                    return;
+                }
                 goalkeeperDirection = "Middle";
                 goalkeeperActionReceived = true;
 
@@ -624,10 +688,92 @@ public class GameRoom {
                         "Hết giờ! \nHệ thống tự chọn 'Middle' cho đối thủ."));
 
                 // Tiến hành xử lý kết quả
-                handleGoalkeeper(goalkeeperDirection, goalkeeperHandler);
+                onGoalkeeper(goalkeeperDirection, goalkeeperHandler, null);
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.error("room event failed", e, "match", matchId);
+        }
+    }
+
+    // Client báo hết giờ: chỉ nhận từ người đang tới lượt, server vẫn tự chốt nếu không có báo này
+    public void handleTimeoutReport(Object role, ClientHandler reporter) {
+        post(() -> {
+            if ("shooter".equals(role) && reporter == shooterHandler) {
+                onShooterTimeout();
+            } else if ("goalkeeper".equals(role) && reporter == goalkeeperHandler) {
+                onGoalkeeperTimeout();
+            }
+        });
+    }
+
+    // Đặt hạn chót cho lượt hiện tại, thay cho hạn chót cũ (nếu còn)
+    private void armTurnTimeout(boolean shooterTurn) {
+        cancelTurnTimeouts();
+        int turn = ++turnSeq;
+        TimingWheel.Timeout task = timer.schedule(() -> post(() -> onTurnDeadline(turn, shooterTurn)),
+                TimeUnit.SECONDS.toMillis(TURN_TIMEOUT) + TURN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        if (shooterTurn) {
+            shooterTimeoutTask = task;
+        } else {
+            goalkeeperTimeoutTask = task;
+        }
+    }
+
+    private void onTurnDeadline(int turn, boolean shooterTurn) {
+        if (closed || turn != turnSeq) {
+            return;
+        }
+        if (shooterTurn) {
+            onShooterTimeout();
+        } else {
+            onGoalkeeperTimeout();
+        }
+    }
+
+    private void cancelTurnTimeouts() {
+        turnSeq++;
+        if (shooterTimeoutTask != null) {
+            shooterTimeoutTask.cancel();
+        }
+        if (goalkeeperTimeoutTask != null) {
+            goalkeeperTimeoutTask.cancel();
+        }
+    }
+
+    // Trận kết thúc vì có người rời phòng: hủy mọi hẹn giờ còn lại của phòng
+    private void closeRoomTimers() {
+        markClosed();
+        cancelTurnTimeouts();
+        if (playAgainTimeoutTask != null) {
+            playAgainTimeoutTask.cancel();
+        }
+    }
+
+    private void markClosed() {
+        if (!closed) {
+            closed = true;
+            originalPlayer1.getServer().roomClosed(System.nanoTime() - openedAt);
+        }
+    }
+
+    // Tính thêm một lượt bỏ; quá giới hạn thì người đó bị xử thua như khi thoát trận
+    private boolean forfeitIfIdle(ClientHandler player) throws SQLException, IOException {
+        int idle = (player == originalPlayer1 ? player1IdleTurns : player2IdleTurns) + 1;
+        setIdleTurns(player, idle);
+        if (idle < MAX_CONSECUTIVE_TIMEOUTS) {
+            return false;
+        }
+        onPlayerQuit(player, "timeout",
+                "Bạn đã bỏ lượt quá nhiều lần. Bạn thua trận đấu!",
+                "Đối thủ không còn phản hồi. Bạn thắng trận đấu!");
+        return true;
+    }
+
+    private void setIdleTurns(ClientHandler player, int idle) {
+        if (player == originalPlayer1) {
+            player1IdleTurns = idle;
+        } else {
+            player2IdleTurns = idle;
         }
     }
 }
@@ -0,0 +1,261 @@
+package server;
+
+import common.User;
+import common.UserStats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * Bảng xếp hạng trong bộ nhớ: treap có kích thước cây con (order-statistic tree),
+ * sắp theo points, bàn thắng, bàn cứu giảm dần giống câu ORDER BY cũ; hòa thì theo id.
+ * Nạp một lần lúc khởi động rồi cập nhật dần theo từng lượt sút và lần cộng điểm,
+ * nên top-N tốn O(log n + N) và thứ hạng của một user tốn O(log n), không chạm MySQL.
+ */
+class Leaderboard {
+
+    private static final class Node {
+        final int userId;
+        final String username;
+        final int points;
+        final int goalsScored;
+        final int goalsSaved;
+        final int priority = ThreadLocalRandom.current().nextInt();
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(int userId, String username, int points, int goalsScored, int goalsSaved) {
+            this.userId = userId;
+            this.username = username;
+            this.points = points;
+            this.goalsScored = goalsScored;
+            this.goalsSaved = goalsSaved;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Node> byId = new HashMap<>();
+    private Node root;
+
+    void loadAll(List<UserStats> stats) {
+        lock.lock();
+        try {
+            for (UserStats s : stats) {
+                put(new Node(s.getId(), s.getUsername(), s.getPoints(), s.getGoalsScored(), s.getGoalsSaved()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // User mới đăng ký
+    void addUser(int userId, String username) {
+        lock.lock();
+        try {
+            if (!byId.containsKey(userId)) {
+                put(new Node(userId, username, 0, 0, 0));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void addPoints(int userId, int points) {
+        update(userId, points, 0, 0);
+    }
+
+    // Một lượt sút: ghi bàn thì tính cho người sút, không thì tính một lần cứu thua cho thủ môn
+    void recordKick(int shooterId, int goalkeeperId, boolean goal) {
+        if (goal) {
+            update(shooterId, 0, 1, 0);
+        } else {
+            update(goalkeeperId, 0, 0, 1);
+        }
+    }
+
+    private void update(int userId, int points, int scored, int saved) {
+        lock.lock();
+        try {
+            Node old = byId.get(userId);
+            if (old == null) {
+                return;
+            }
+            put(new Node(userId, old.username, old.points + points,
+                    old.goalsScored + scored, old.goalsSaved + saved));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // n người đứng đầu, status lấy từ bảng trạng thái của server
+    List<UserStats> top(int n, IntFunction<String> statusOf) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+        lock.lock();
+        try {
+            List<UserStats> result = new ArrayList<>(Math.min(n, size(root)));
+            collect(root, n, result, statusOf);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Thứ hạng bắt đầu từ 1, 0 nếu không có user này
+    int rankOf(int userId) {
+        lock.lock();
+        try {
+            Node target = byId.get(userId);
+            if (target == null) {
+                return 0;
+            }
+            int rank = 1;
+            Node node = root;
+            while (node != null) {
+                int cmp = compare(target, node);
+                if (cmp < 0) {
+                    node = node.left;
+                } else {
+                    rank += size(node.left);
+                    if (cmp == 0) {
+                        return rank;
+                    }
+                    rank++;
+                    node = node.right;
+                }
+            }
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size(root);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(Node node) {
+        Node old = byId.put(node.userId, node);
+        if (old != null) {
+            root = remove(root, old);
+        }
+        root = insert(root, node);
+    }
+
+    private static void collect(Node node, int n, List<UserStats> out, IntFunction<String> statusOf) {
+        if (node == null || out.size() >= n) {
+            return;
+        }
+        collect(node.left, n, out, statusOf);
+        if (out.size() < n) {
+            User user = new User(node.userId, node.username, node.points, statusOf.apply(node.userId));
+            out.add(new UserStats(user, node.goalsScored, node.goalsSaved));
+            collect(node.right, n, out, statusOf);
+        }
+    }
+
+    // Đứng trước = xếp hạng cao hơn
+    private static int compare(Node a, Node b) {
+        if (a.points != b.points) {
+            return Integer.compare(b.points, a.points);
+        }
+        if (a.goalsScored != b.goalsScored) {
+            return Integer.compare(b.goalsScored, a.goalsScored);
+        }
+        if (a.goalsSaved != b.goalsSaved) {
+            return Integer.compare(b.goalsSaved, a.goalsSaved);
+        }
+        return Integer.compare(a.userId, b.userId);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void fix(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static Node insert(Node node, Node item) {
+        if (node == null) {
+            return item;
+        }
+        if (compare(item, node) < 0) {
+            node.left = insert(node.left, item);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, item);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        fix(node);
+        return node;
+    }
+
+    private static Node remove(Node node, Node item) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = compare(item, node);
+        if (cmp < 0) {
+            node.left = remove(node.left, item);
+        } else if (cmp > 0) {
+            node.right = remove(node.right, item);
+        } else {
+            return merge(node.left, node.right);
+        }
+        fix(node);
+        return node;
+    }
+
+    // Mọi khóa của a đứng trước mọi khóa của b
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            fix(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        fix(b);
+        return b;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        fix(node);
+        fix(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        fix(node);
+        fix(right);
+        return right;
+    }
+}
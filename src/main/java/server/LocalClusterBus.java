@@ -0,0 +1,115 @@
+package server;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ClusterBus trong cùng tiến trình: mỗi node có một hàng đợi riêng chạy tuần tự trên
+ * thread pool dùng chung, nên node gửi không bao giờ bị chặn bởi node nhận và thứ tự
+ * sự kiện tới từng node được giữ nguyên. Dùng cho chạy nhiều node trong một JVM và khi thử nghiệm.
+ */
+public class LocalClusterBus implements ClusterBus {
+
+    private static final class Member {
+        final Listener listener;
+        final SerialExecutor inbox;
+
+        Member(Listener listener, SerialExecutor inbox) {
+            this.listener = listener;
+            this.inbox = inbox;
+        }
+    }
+
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final LongAdder delivered = new LongAdder();
+    // Giữ khi node vào/rời, để mỗi node thấy đúng các node vào trước nó
+    private final ReentrantLock membershipLock = new ReentrantLock();
+
+    public LocalClusterBus() {
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "cluster-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public Set<String> join(String nodeId, Listener listener) {
+        Member joined = new Member(listener, new SerialExecutor(executor));
+        membershipLock.lock();
+        try {
+            if (members.putIfAbsent(nodeId, joined) != null) {
+                throw new IllegalStateException("Node " + nodeId + " đã có trong cluster");
+            }
+            Set<String> existing = new HashSet<>();
+            for (Map.Entry<String, Member> entry : members.entrySet()) {
+                String other = entry.getKey();
+                if (!other.equals(nodeId)) {
+                    existing.add(other);
+                    Member member = entry.getValue();
+                    member.inbox.execute(() -> member.listener.onMemberJoined(nodeId));
+                    joined.inbox.execute(() -> listener.onMemberJoined(other));
+                }
+            }
+            return existing;
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    @Override
+    public void leave(String nodeId) {
+        membershipLock.lock();
+        try {
+            if (members.remove(nodeId) == null) {
+                return;
+            }
+            for (Member member : members.values()) {
+                member.inbox.execute(() -> member.listener.onMemberLeft(nodeId));
+            }
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    @Override
+    public void publish(ClusterEvent event) {
+        for (Map.Entry<String, Member> entry : members.entrySet()) {
+            if (!entry.getKey().equals(event.getSourceNode())) {
+                deliver(entry.getValue(), event);
+            }
+        }
+    }
+
+    @Override
+    public void send(String nodeId, ClusterEvent event) {
+        Member member = members.get(nodeId);
+        if (member != null) {
+            deliver(member, event);
+        }
+    }
+
+    private void deliver(Member member, ClusterEvent event) {
+        member.inbox.execute(() -> {
+            delivered.increment();
+            member.listener.onEvent(event);
+        });
+    }
+
+    int size() {
+        return members.size();
+    }
+
+    long getDeliveredCount() {
+        return delivered.sum();
+    }
+}
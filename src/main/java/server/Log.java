@@ -0,0 +1,340 @@
+package server;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logger bất đồng bộ có cấu trúc (dạng logfmt: msg="..." key=value ...) cho các đường nóng của server.
+ *
+ * Thread gọi chỉ ghi một ô vào ring buffer không khóa (nhiều producer, một consumer); định dạng và
+ * ghi ra stdout/file do một thread daemon làm. Buffer đầy thì bản ghi bị bỏ và được đếm, thread gọi
+ * không bao giờ bị chặn. Mức log đọc một lần từ penalty.log.level (debug/info/warn/error/off) vào
+ * hằng static final, nên lệnh debug khi tắt bị JIT loại bỏ; các overload cố định số cặp key/value
+ * tránh cấp phát mảng varargs. Giá trị được định dạng muộn trên thread ghi nên chỉ nên truyền
+ * giá trị bất biến (chuỗi, số).
+ */
+final class Log {
+
+    static final int DEBUG = 0;
+    static final int INFO = 1;
+    static final int WARN = 2;
+    static final int ERROR = 3;
+    static final int OFF = 4;
+
+    private static final String[] LEVEL_NAMES = { "DEBUG", "INFO", "WARN", "ERROR" };
+    private static final int LEVEL = parseLevel(System.getProperty("penalty.log.level", "info"));
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    // Một ô của ring buffer; sequence báo ô đang trống (== vị trí ghi) hay đã có dữ liệu (== vị trí + 1)
+    private static final class Slot {
+        volatile long sequence;
+        long time;
+        int level;
+        String thread;
+        String message;
+        Object[] fields;
+        Throwable error;
+    }
+
+    private static final Slot[] slots;
+    private static final int mask;
+    private static final AtomicLong tail = new AtomicLong();
+    // Chỉ thread ghi đọc/ghi head
+    private static long head;
+    private static final LongAdder dropped = new LongAdder();
+    private static long reportedDrops;
+    private static final Writer out;
+    private static volatile boolean closing;
+    private static final Thread appender;
+
+    static {
+        int capacity = Integer.highestOneBit(Math.max(64, Integer.getInteger("penalty.log.bufferSize", 8192)) - 1) << 1;
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+            slots[i].sequence = i;
+        }
+        mask = capacity - 1;
+        out = new BufferedWriter(new OutputStreamWriter(openOutput(System.getProperty("penalty.log.file")),
+                StandardCharsets.UTF_8), 64 * 1024);
+        appender = new Thread(Log::drainLoop, "log-appender");
+        appender.setDaemon(true);
+        appender.start();
+        // Ghi nốt những gì còn trong buffer khi tắt server
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            closing = true;
+            LockSupport.unpark(appender);
+            try {
+                appender.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    static boolean isDebugEnabled() {
+        return LEVEL <= DEBUG;
+    }
+
+    static boolean isEnabled(int level) {
+        return LEVEL <= level;
+    }
+
+    static void debug(String message) {
+        if (LEVEL <= DEBUG) {
+            publish(DEBUG, message, null, null);
+        }
+    }
+
+    static void debug(String message, String key, Object value) {
+        if (LEVEL <= DEBUG) {
+            publish(DEBUG, message, new Object[] { key, value }, null);
+        }
+    }
+
+    static void debug(String message, String key1, Object value1, String key2, Object value2) {
+        if (LEVEL <= DEBUG) {
+            publish(DEBUG, message, new Object[] { key1, value1, key2, value2 }, null);
+        }
+    }
+
+    static void debug(String message, Object... fields) {
+        if (LEVEL <= DEBUG) {
+            publish(DEBUG, message, fields, null);
+        }
+    }
+
+    static void info(String message) {
+        if (LEVEL <= INFO) {
+            publish(INFO, message, null, null);
+        }
+    }
+
+    static void info(String message, String key, Object value) {
+        if (LEVEL <= INFO) {
+            publish(INFO, message, new Object[] { key, value }, null);
+        }
+    }
+
+    static void info(String message, String key1, Object value1, String key2, Object value2) {
+        if (LEVEL <= INFO) {
+            publish(INFO, message, new Object[] { key1, value1, key2, value2 }, null);
+        }
+    }
+
+    static void info(String message, Object... fields) {
+        if (LEVEL <= INFO) {
+            publish(INFO, message, fields, null);
+        }
+    }
+
+    static void warn(String message, Object... fields) {
+        if (LEVEL <= WARN) {
+            publish(WARN, message, fields, null);
+        }
+    }
+
+    static void warn(String message, Throwable error, Object... fields) {
+        if (LEVEL <= WARN) {
+            publish(WARN, message, fields, error);
+        }
+    }
+
+    static void error(String message, Object... fields) {
+        if (LEVEL <= ERROR) {
+            publish(ERROR, message, fields, null);
+        }
+    }
+
+    static void error(String message, Throwable error, Object... fields) {
+        if (LEVEL <= ERROR) {
+            publish(ERROR, message, fields, error);
+        }
+    }
+
+    // Số bản ghi bị bỏ vì buffer đầy
+    static long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    // Giành một ô bằng CAS trên tail; buffer đầy thì bỏ bản ghi thay vì chờ
+    private static void publish(int level, String message, Object[] fields, Throwable error) {
+        long pos = tail.get();
+        Slot slot;
+        while (true) {
+            slot = slots[(int) (pos & mask)];
+            long diff = slot.sequence - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                dropped.increment();
+                return;
+            } else {
+                pos = tail.get();
+            }
+        }
+        Thread current = Thread.currentThread();
+        String name = current.getName();
+        slot.time = System.currentTimeMillis();
+        slot.level = level;
+        slot.thread = name.isEmpty() ? "#" + current.threadId() : name;
+        slot.message = message;
+        slot.fields = fields;
+        slot.error = error;
+        slot.sequence = pos + 1; // công bố cho thread ghi
+    }
+
+    private static void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            boolean wrote = false;
+            Slot slot;
+            while ((slot = slots[(int) (head & mask)]).sequence == head + 1) {
+                format(line, slot);
+                Throwable error = slot.error;
+                slot.thread = null;
+                slot.message = null;
+                slot.fields = null;
+                slot.error = null;
+                slot.sequence = head + slots.length; // trả ô cho vòng sau
+                head++;
+                write(line, error);
+                wrote = true;
+            }
+            long drops = dropped.sum();
+            if (drops != reportedDrops) {
+                line.setLength(0);
+                line.append(TIME.format(Instant.now())).append(" WARN  [log-appender] msg=\"log buffer full\" dropped=")
+                        .append(drops - reportedDrops);
+                reportedDrops = drops;
+                write(line, null);
+                wrote = true;
+            }
+            if (wrote) {
+                flush();
+            } else if (closing) {
+                return;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private static void format(StringBuilder line, Slot slot) {
+        line.setLength(0);
+        line.append(TIME.format(Instant.ofEpochMilli(slot.time))).append(' ');
+        String level = LEVEL_NAMES[slot.level];
+        line.append(level);
+        for (int i = level.length(); i < 6; i++) {
+            line.append(' ');
+        }
+        line.append('[').append(slot.thread).append("] msg=");
+        appendValue(line, slot.message);
+        Object[] fields = slot.fields;
+        if (fields != null) {
+            for (int i = 0; i + 1 < fields.length; i += 2) {
+                line.append(' ').append(fields[i]).append('=');
+                appendValue(line, fields[i + 1]);
+            }
+        }
+        if (slot.error != null) {
+            line.append(" error=");
+            appendValue(line, slot.error.toString());
+        }
+    }
+
+    // Giá trị có khoảng trắng, dấu nháy hoặc dấu = thì đặt trong nháy kép
+    private static void appendValue(StringBuilder line, Object value) {
+        String text = String.valueOf(value);
+        boolean quote = text.isEmpty();
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if (!quote) {
+            line.append(text);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private static void write(StringBuilder line, Throwable error) {
+        try {
+            out.append(line).append('\n');
+            if (error != null) {
+                PrintWriter trace = new PrintWriter(out);
+                error.printStackTrace(trace);
+                trace.flush();
+            }
+        } catch (IOException e) {
+            // Không ghi được log thì cũng không làm gì hơn được
+        }
+    }
+
+    private static void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            // bỏ qua
+        }
+    }
+
+    private static OutputStream openOutput(String file) {
+        if (file != null && !file.isEmpty()) {
+            try {
+                return new FileOutputStream(file, true);
+            } catch (IOException e) {
+                System.err.println("Không mở được file log " + file + ", ghi ra stdout: " + e.getMessage());
+            }
+        }
+        return System.out;
+    }
+
+    private static int parseLevel(String name) {
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "debug":
+                return DEBUG;
+            case "warn":
+                return WARN;
+            case "error":
+                return ERROR;
+            case "off":
+                return OFF;
+            default:
+                return INFO;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package server;
+
+import common.TraceContext;
+import common.Tracer;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ghi match_details kiểu write-behind: các phòng chỉ đẩy lượt sút vào hàng đợi,
+ * một thread nền gom lại và ghi thành batch khi đủ batchSize dòng hoặc sau flushInterval.
+ * Chỉ thread nền chạm DB: phòng không bao giờ tự flush, kể cả khi trận kết thúc. Phòng hỏi
+ * written(matchId) và nhận một future do thread nền hoàn tất khi mọi lượt sút của trận đó đã được ghi
+ * (hoặc đã bỏ sau khi thử lại), rồi mới chốt kết quả trận.
+ * Batch lỗi được thử lại vài lần có backoff, rồi ghi từng dòng; chỉ dòng vẫn lỗi sau đó mới bị bỏ.
+ * Vượt queueCapacity chỉ là ngưỡng cảnh báo (DB đang chậm), lượt sút vẫn được nhận để phòng không bị chặn.
+ */
+class MatchDetailsWriter implements AutoCloseable {
+
+    // Số lần ghi cả batch trước khi chuyển sang ghi từng dòng, và thời gian chờ trước lần thử thứ hai
+    private static final int BATCH_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    // Một dòng match_details chờ ghi
+    static final class Kick {
+        final int matchId;
+        final int round;
+        final int shooterId;
+        final int goalkeeperId;
+        final String shooterDirection;
+        final String goalkeeperDirection;
+        final String result;
+        // Trace của lệnh bắt đã chốt lượt sút này (null nếu không được lấy mẫu)
+        final TraceContext trace;
+
+        Kick(int matchId, int round, int shooterId, int goalkeeperId, String shooterDirection,
+                String goalkeeperDirection, String result, TraceContext trace) {
+            this.matchId = matchId;
+            this.round = round;
+            this.shooterId = shooterId;
+            this.goalkeeperId = goalkeeperId;
+            this.shooterDirection = shooterDirection;
+            this.goalkeeperDirection = goalkeeperDirection;
+            this.result = result;
+            this.trace = trace;
+        }
+    }
+
+    // Tiến độ ghi của một trận: số lượt sút còn chờ, số dòng bị bỏ, future của người đang chờ
+    private static final class MatchProgress {
+        int pending;
+        int lost;
+        CompletableFuture<Integer> done;
+    }
+
+    private final DatabaseManager dbManager;
+    private final BlockingQueue<Kick> queue = new LinkedBlockingQueue<>();
+    private final int queueCapacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    // Chỉ một luồng ghi batch tại một thời điểm để giữ thứ tự các lượt sút
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Khóa ngắn quanh progress, không bao giờ giữ trong lúc gọi DB
+    private final ReentrantLock progressLock = new ReentrantLock();
+    private final Map<Integer, MatchProgress> progress = new HashMap<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder overCapacity = new LongAdder();
+
+    MatchDetailsWriter(DatabaseManager dbManager, int queueCapacity, int batchSize, long flushIntervalMillis) {
+        this.dbManager = dbManager;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.thread = new Thread(this::runLoop, "match-details-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // Đưa một lượt sút vào hàng đợi; không bao giờ chạm DB hay chờ trên thread gọi
+    void enqueue(Kick kick) {
+        progressLock.lock();
+        try {
+            progress.computeIfAbsent(kick.matchId, id -> new MatchProgress()).pending++;
+        } finally {
+            progressLock.unlock();
+        }
+        queue.add(kick);
+        int size = queue.size();
+        if (size > queueCapacity) {
+            overCapacity.increment();
+        }
+        if (size >= batchSize) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Hoàn tất (trên thread nền) khi mọi lượt sút đã xếp hàng của trận được ghi; giá trị là số dòng bị bỏ
+    CompletableFuture<Integer> written(int matchId) {
+        CompletableFuture<Integer> done;
+        progressLock.lock();
+        try {
+            MatchProgress p = progress.get(matchId);
+            if (p == null) {
+                return CompletableFuture.completedFuture(0);
+            }
+            if (p.pending == 0) {
+                progress.remove(matchId);
+                return CompletableFuture.completedFuture(p.lost);
+            }
+            if (p.done == null) {
+                p.done = new CompletableFuture<>();
+            }
+            done = p.done;
+        } finally {
+            progressLock.unlock();
+        }
+        // Có người chờ: ghi ngay thay vì đợi hết flushInterval
+        LockSupport.unpark(thread);
+        return done;
+    }
+
+    // Ghi mọi dòng đang chờ; chỉ chạy trên thread nền (và khi đóng)
+    private void flush() {
+        flushLock.lock();
+        try {
+            List<Kick> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                try {
+                    writeBatch(batch);
+                    for (Kick kick : batch) {
+                        settle(kick, false);
+                    }
+                } catch (SQLException e) {
+                    writeRows(batch);
+                }
+                batch.clear();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Ghi cả batch, thử lại với backoff tăng dần khi DB lỗi tạm thời
+    private void writeBatch(List<Kick> batch) throws SQLException {
+        long backoff = RETRY_BACKOFF_NANOS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                dbManager.saveMatchDetailsBatch(batch);
+                written.add(batch.size());
+                batches.increment();
+                for (Kick kick : batch) {
+                    Tracer.mark(kick.trace, "db.written");
+                }
+                return;
+            } catch (SQLException e) {
+                Log.warn("match_details batch failed", "rows", batch.size(), "attempt", attempt,
+                        "error", e.getMessage());
+                if (attempt >= BATCH_ATTEMPTS) {
+                    throw e;
+                }
+            }
+            LockSupport.parkNanos(this, backoff);
+            backoff *= 2;
+        }
+    }
+
+    // Batch vẫn lỗi: ghi từng dòng để một dòng hỏng không kéo theo cả batch
+    private void writeRows(List<Kick> batch) {
+        for (Kick kick : batch) {
+            boolean lost = false;
+            try {
+                dbManager.saveMatchDetails(kick.matchId, kick.round, kick.shooterId, kick.goalkeeperId,
+                        kick.shooterDirection, kick.goalkeeperDirection, kick.result);
+                written.increment();
+                Tracer.mark(kick.trace, "db.written");
+            } catch (SQLException e) {
+                lost = true;
+                failed.increment();
+                Log.error("match_details row dropped", "match", kick.matchId, "round", kick.round,
+                        "error", e.getMessage());
+            }
+            settle(kick, lost);
+        }
+    }
+
+    // Một lượt sút đã xong (ghi được hoặc bị bỏ); báo cho người đang chờ trận đó nếu là lượt cuối
+    private void settle(Kick kick, boolean lost) {
+        CompletableFuture<Integer> done = null;
+        int lostRows = 0;
+        progressLock.lock();
+        try {
+            MatchProgress p = progress.get(kick.matchId);
+            if (p == null) {
+                return;
+            }
+            p.pending--;
+            if (lost) {
+                p.lost++;
+            }
+            if (p.pending == 0 && p.done != null) {
+                progress.remove(kick.matchId);
+                done = p.done;
+                lostRows = p.lost;
+            }
+        } finally {
+            progressLock.unlock();
+        }
+        if (done != null) {
+            // Phòng chỉ đưa bước tiếp theo vào hộp thư của nó, không làm việc nặng trên thread này
+            done.complete(lostRows);
+        }
+    }
+
+    private void runLoop() {
+        while (running) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+            if (!queue.isEmpty()) {
+                flush();
+            }
+        }
+        flush();
+    }
+
+    int getPendingCount() {
+        return queue.size();
+    }
+
+    long getWrittenCount() {
+        return written.sum();
+    }
+
+    long getBatchCount() {
+        return batches.sum();
+    }
+
+    long getFailedCount() {
+        return failed.sum();
+    }
+
+    // Số lần hàng đợi vượt queueCapacity (DB không theo kịp)
+    long getOverCapacityCount() {
+        return overCapacity.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
@@ -0,0 +1,194 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Hàng đợi ghép trận tự động. Người chơi vào hàng bằng queue_join; một thread nền mỗi tick
+ * duyệt hàng theo thứ tự vào trước, tìm người có điểm gần nhất trong chỉ mục sắp theo điểm
+ * (O(log n) mỗi người) và ghép nếu chênh lệch nằm trong cửa sổ. Cửa sổ nới rộng theo thời gian chờ
+ * nên người chờ lâu vẫn có trận dù không ai cùng trình độ.
+ */
+class Matchmaker implements AutoCloseable {
+
+    private static final class Entry {
+        final ClientHandler client;
+        final int userId;
+        final int points;
+        final long key;
+        final long enqueuedAt;
+        boolean matched;
+
+        Entry(ClientHandler client, int userId, int points, long seq) {
+            this.client = client;
+            this.userId = userId;
+            this.points = points;
+            // Sắp theo điểm, cùng điểm thì theo thứ tự vào hàng
+            this.key = ((long) points << 32) | (seq & 0xFFFFFFFFL);
+            this.enqueuedAt = System.nanoTime();
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Người đang chờ theo user id, giữ thứ tự vào hàng
+    private final Map<Integer, Entry> waiting = new LinkedHashMap<>();
+    private final TreeMap<Long, Entry> byPoints = new TreeMap<>();
+    private long seq;
+
+    private final BiConsumer<ClientHandler, ClientHandler> onMatch;
+    private final long tickNanos;
+    private final int baseWindow;
+    private final int widenPerSecond;
+    private final int maxWindow;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder totalWaitMillis = new LongAdder();
+
+    Matchmaker(ServerConfig config, BiConsumer<ClientHandler, ClientHandler> onMatch) {
+        this.onMatch = onMatch;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(config.getMatchmakingTickMillis());
+        this.baseWindow = config.getMatchmakingWindow();
+        this.widenPerSecond = config.getMatchmakingWidenPerSecond();
+        this.maxWindow = config.getMatchmakingMaxWindow();
+        this.thread = new Thread(this::runLoop, "matchmaker");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // false nếu người chơi đã ở trong hàng
+    boolean join(ClientHandler client, int points) {
+        int userId = client.getUser().getId();
+        lock.lock();
+        try {
+            if (waiting.containsKey(userId)) {
+                return false;
+            }
+            Entry entry = new Entry(client, userId, points, seq++);
+            waiting.put(userId, entry);
+            byPoints.put(entry.key, entry);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // false nếu người chơi không có trong hàng
+    boolean leave(int userId) {
+        lock.lock();
+        try {
+            Entry entry = waiting.remove(userId);
+            if (entry == null) {
+                return false;
+            }
+            byPoints.remove(entry.key);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Một lượt ghép; trả về các cặp đã lấy ra khỏi hàng
+    List<ClientHandler[]> matchOnce() {
+        long now = System.nanoTime();
+        List<ClientHandler[]> pairs = new ArrayList<>();
+        lock.lock();
+        try {
+            if (waiting.size() < 2) {
+                return pairs;
+            }
+            // Người chờ lâu nhất được chọn trước
+            List<Entry> queue = new ArrayList<>(waiting.values());
+            for (Entry entry : queue) {
+                if (entry.matched) {
+                    continue;
+                }
+                Entry partner = nearest(entry);
+                if (partner == null || Math.abs(partner.points - entry.points) > window(entry, now)) {
+                    continue;
+                }
+                entry.matched = true;
+                partner.matched = true;
+                remove(entry);
+                remove(partner);
+                matches.increment();
+                totalWaitMillis.add(TimeUnit.NANOSECONDS.toMillis(2 * now - entry.enqueuedAt - partner.enqueuedAt));
+                pairs.add(new ClientHandler[] { entry.client, partner.client });
+            }
+        } finally {
+            lock.unlock();
+        }
+        return pairs;
+    }
+
+    private Entry nearest(Entry entry) {
+        Map.Entry<Long, Entry> lower = byPoints.lowerEntry(entry.key);
+        Map.Entry<Long, Entry> higher = byPoints.higherEntry(entry.key);
+        if (lower == null) {
+            return higher == null ? null : higher.getValue();
+        }
+        if (higher == null) {
+            return lower.getValue();
+        }
+        int below = entry.points - lower.getValue().points;
+        int above = higher.getValue().points - entry.points;
+        return below <= above ? lower.getValue() : higher.getValue();
+    }
+
+    private long window(Entry entry, long now) {
+        long waitedSeconds = TimeUnit.NANOSECONDS.toSeconds(now - entry.enqueuedAt);
+        return Math.min(maxWindow, baseWindow + waitedSeconds * widenPerSecond);
+    }
+
+    private void remove(Entry entry) {
+        waiting.remove(entry.userId);
+        byPoints.remove(entry.key);
+    }
+
+    private void runLoop() {
+        while (running) {
+            LockSupport.parkNanos(this, tickNanos);
+            for (ClientHandler[] pair : matchOnce()) {
+                try {
+                    onMatch.accept(pair[0], pair[1]);
+                } catch (RuntimeException e) {
+                    Log.error("matchmaking callback failed", e);
+                }
+            }
+        }
+    }
+
+    long getMatchCount() {
+        return matches.sum();
+    }
+
+    // Thời gian chờ trung bình của người đã được ghép (ms)
+    long getAverageWaitMillis() {
+        long count = matches.sum();
+        return count == 0 ? 0 : totalWaitMillis.sum() / (2 * count);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+}
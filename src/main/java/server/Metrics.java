@@ -0,0 +1,234 @@
+package server;
+
+import common.LogLinearHistogram;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Số liệu vận hành của server: counter, gauge và histogram độ trễ, ghi không khóa.
+ * Đăng ký theo kiểu lấy-hoặc-tạo theo tên nên nhiều nơi dùng chung một metric được,
+ * và xuất ra dạng text của Prometheus (xem MetricsEndpoint).
+ *
+ * Histogram dùng LogLinearHistogram (sai số không quá 12.5%) và được xuất như summary:
+ * quantile, _sum, _count tính từ lúc server khởi động, đơn vị giây.
+ */
+class Metrics {
+
+    private static final String COUNTER = "counter";
+    private static final String GAUGE = "gauge";
+    private static final String SUMMARY = "summary";
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final Map<String, Family<?>> families = new ConcurrentHashMap<>();
+    // Giữ thứ tự đăng ký để bản xuất ổn định giữa các lần scrape
+    private final List<Family<?>> ordered = new CopyOnWriteArrayList<>();
+
+    // Một giá trị của metric, tự ghi các dòng mẫu của mình
+    private interface Sample {
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    // Các metric cùng tên, phân biệt theo giá trị của một nhãn (không nhãn thì chỉ có một)
+    static final class Family<T extends Sample> {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final String labelName;
+        private final Supplier<T> factory;
+        private final Map<String, T> children = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type, String labelName, Supplier<T> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelName = labelName;
+            this.factory = factory;
+        }
+
+        T labels(String value) {
+            T child = children.get(value);
+            return child != null ? child : children.computeIfAbsent(value, k -> factory.get());
+        }
+
+        private void write(StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (Map.Entry<String, T> entry : children.entrySet()) {
+                String labels = labelName == null ? "" : labelName + "=\"" + escape(entry.getKey()) + "\"";
+                entry.getValue().write(out, name, labels);
+            }
+        }
+    }
+
+    static final class Counter implements Sample {
+        private final LongAdder value = new LongAdder();
+
+        void inc() {
+            value.increment();
+        }
+
+        void add(long n) {
+            value.add(n);
+        }
+
+        long get() {
+            return value.sum();
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            line(out, name, labels, value.sum());
+        }
+    }
+
+    // Gauge tăng/giảm trực tiếp (số phòng đang chơi, số kết nối đang mở)
+    static final class Gauge implements Sample {
+        private final LongAdder value = new LongAdder();
+
+        void inc() {
+            value.increment();
+        }
+
+        void dec() {
+            value.decrement();
+        }
+
+        long get() {
+            return value.sum();
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            line(out, name, labels, value.sum());
+        }
+    }
+
+    // Giá trị đọc lúc scrape từ bộ đếm sẵn có (kích thước map, LongAdder của thành phần khác)
+    private static final class Sampled implements Sample {
+        private final LongSupplier supplier;
+
+        private Sampled(LongSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            line(out, name, labels, supplier.getAsLong());
+        }
+    }
+
+    // Histogram thời gian (nano giây), bucket do LogLinearHistogram quản lý
+    static final class Histogram implements Sample {
+        private final LogLinearHistogram values = new LogLinearHistogram();
+
+        void record(long nanos) {
+            values.record(nanos);
+        }
+
+        // Ghi thời gian từ startNanos (System.nanoTime()) tới bây giờ
+        void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        long getCount() {
+            return values.getCount();
+        }
+
+        // Cận trên của bucket chứa quantile q (0..1)
+        long quantile(double q) {
+            return values.quantile(q);
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            for (double q : QUANTILES) {
+                line(out, name, prefix + "quantile=\"" + q + "\"", seconds(values.quantile(q)));
+            }
+            line(out, name + "_sum", labels, seconds(values.getSum()));
+            line(out, name + "_count", labels, values.getCount());
+        }
+    }
+
+    Counter counter(String name, String help) {
+        return counters(name, help, null).labels("");
+    }
+
+    Family<Counter> counters(String name, String help, String labelName) {
+        return family(name, help, COUNTER, labelName, Counter::new);
+    }
+
+    // Counter đọc từ bộ đếm có sẵn
+    void counter(String name, String help, LongSupplier supplier) {
+        family(name, help, COUNTER, null, () -> new Sampled(supplier)).labels("");
+    }
+
+    Gauge gauge(String name, String help) {
+        return family(name, help, GAUGE, null, Gauge::new).labels("");
+    }
+
+    void gauge(String name, String help, LongSupplier supplier) {
+        family(name, help, GAUGE, null, () -> new Sampled(supplier)).labels("");
+    }
+
+    Histogram histogram(String name, String help) {
+        return histograms(name, help, null).labels("");
+    }
+
+    Family<Histogram> histograms(String name, String help, String labelName) {
+        return family(name, help, SUMMARY, labelName, Histogram::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Sample> Family<T> family(String name, String help, String type, String labelName,
+            Supplier<T> factory) {
+        Family<?> family = families.computeIfAbsent(name, k -> {
+            Family<T> created = new Family<>(name, help, type, labelName, factory);
+            ordered.add(created);
+            return created;
+        });
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " đã được đăng ký với kiểu " + family.type);
+        }
+        return (Family<T>) family;
+    }
+
+    // Toàn bộ số liệu ở dạng text của Prometheus (version 0.0.4)
+    String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        for (Family<?> family : ordered) {
+            family.write(out);
+        }
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static void line(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
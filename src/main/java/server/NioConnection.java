@@ -0,0 +1,269 @@
+package server;
+
+import common.Message;
+import common.MessageCodec;
+import common.Protocol;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Kết nối không chặn: tự tách frame [int độ dài][payload] và chuyển Message sang worker
+class NioConnection implements ClientConnection {
+    private enum State { HANDSHAKE, FRAMED, HANDED_OFF, CLOSED }
+
+    // Số frame tối đa trong một lần ghi gom
+    private static final int MAX_GATHER = 64;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private SelectionKey key;
+    private volatile State state = State.HANDSHAKE;
+    private volatile boolean closing = false;
+
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    // Số frame đang chờ ghi; broadcast bị từ chối khi vượt outboundLimit
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int outboundLimit;
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_GATHER];
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private ByteBuffer pending; // Dữ liệu của frame chưa đọc đủ, null khi không có
+
+    private MessageCodec codec;
+    private ClientHandler handler;
+    private Executor dispatcher; // Giữ thứ tự xử lý message của kết nối này
+
+    NioConnection(SocketChannel channel, NioEventLoop loop, int outboundLimit) {
+        this.channel = channel;
+        this.loop = loop;
+        this.outboundLimit = outboundLimit;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    // Gửi header ObjectOutputStream để client cũ vẫn bắt tay được
+    void start() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(Protocol.STREAM_HEADER);
+        header.flip();
+        queued.incrementAndGet();
+        outbound.add(header);
+        flush();
+    }
+
+    @Override
+    public void send(Message message) throws IOException {
+        if (!isOpen()) {
+            throw new IOException("Kết nối đã đóng");
+        }
+        byte[] payload = codec.encode(message);
+        ByteBuffer frame = ByteBuffer.allocate(4 + payload.length);
+        frame.putInt(payload.length).put(payload).flip();
+        queued.incrementAndGet();
+        outbound.add(frame);
+        scheduleFlush();
+    }
+
+    @Override
+    public boolean sendBroadcast(Broadcast broadcast) throws IOException {
+        if (!isOpen()) {
+            throw new IOException("Kết nối đã đóng");
+        }
+        if (queued.get() >= outboundLimit) {
+            return false;
+        }
+        // Mỗi kết nối một view riêng trên cùng mảng byte đã mã hóa
+        queued.incrementAndGet();
+        outbound.add(ByteBuffer.wrap(broadcast.frameFor(codec)));
+        scheduleFlush();
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return state != State.CLOSED && !closing;
+    }
+
+    // Đóng sau khi đã gửi hết dữ liệu đang chờ
+    @Override
+    public void close() {
+        closing = true;
+        scheduleFlush();
+    }
+
+    @Override
+    public void abort() {
+        closing = true;
+        loop.execute(this::closeNow);
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                try {
+                    flush();
+                } catch (IOException e) {
+                    closeNow();
+                }
+            });
+        }
+    }
+
+    // Chỉ gọi trên thread của event loop
+    void flush() throws IOException {
+        if (state == State.CLOSED || state == State.HANDED_OFF) {
+            return;
+        }
+        while (!outbound.isEmpty()) {
+            // Gom nhiều frame vào một lần ghi (gathering write) thay vì một syscall mỗi frame
+            int count = 0;
+            for (ByteBuffer buffer : outbound) {
+                batch[count++] = buffer;
+                if (count == batch.length) {
+                    break;
+                }
+            }
+            channel.write(batch, 0, count);
+            for (int i = 0; i < count; i++) {
+                if (batch[i].hasRemaining()) {
+                    Arrays.fill(batch, 0, count, null);
+                    // Socket buffer đầy, chờ OP_WRITE
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                outbound.poll();
+                queued.decrementAndGet();
+            }
+            Arrays.fill(batch, 0, count, null);
+        }
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+        if (closing) {
+            closeNow();
+        }
+    }
+
+    // Chỉ gọi trên thread của event loop
+    void onReadable(ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        int n = channel.read(readBuffer);
+        if (n < 0) {
+            closeNow();
+            return;
+        }
+        readBuffer.flip();
+        ByteBuffer data = readBuffer;
+        if (pending != null) {
+            pending = ensureCapacity(pending, readBuffer.remaining());
+            pending.put(readBuffer).flip();
+            data = pending;
+        }
+
+        if (state == State.HANDSHAKE && data.remaining() >= 4) {
+            int magic = data.getInt(data.position());
+            if (magic == Protocol.STREAM_HEADER) {
+                handOff(data);
+                return;
+            }
+            codec = Protocol.codecFor(magic);
+            if (codec == null) {
+                throw new StreamCorruptedException("Magic không hỗ trợ: " + Integer.toHexString(magic));
+            }
+            data.position(data.position() + 4);
+            handler = loop.createHandler(this);
+            dispatcher = new SerialExecutor(loop.getWorkers());
+            state = State.FRAMED;
+        }
+        if (state == State.FRAMED) {
+            decodeFrames(data);
+        }
+        keepRemainder(data);
+    }
+
+    private void decodeFrames(ByteBuffer data) throws IOException {
+        while (data.remaining() >= 4) {
+            int length = data.getInt(data.position());
+            Protocol.checkFrameLength(length);
+            if (data.remaining() < 4 + length) {
+                break;
+            }
+            data.position(data.position() + 4);
+            byte[] payload = new byte[length];
+            data.get(payload);
+            Message message = codec.decode(payload, 0, length);
+            dispatcher.execute(() -> handler.onMessage(message));
+        }
+    }
+
+    // Giữ lại phần frame dở dang, giải phóng buffer riêng khi đã đọc hết
+    private void keepRemainder(ByteBuffer data) {
+        if (!data.hasRemaining()) {
+            pending = null;
+        } else if (data == pending) {
+            pending.compact();
+        } else {
+            pending = ensureCapacity(null, data.remaining());
+            pending.put(data);
+        }
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int extra) {
+        if (buffer == null) {
+            return ByteBuffer.allocate(Math.max(256, extra));
+        }
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        return bigger.put(buffer);
+    }
+
+    private void handOff(ByteBuffer data) {
+        byte[] prefetched = new byte[data.remaining()];
+        data.get(prefetched);
+        pending = null;
+        state = State.HANDED_OFF;
+        key.interestOps(0);
+        // Không được gọi selectNow() khi event loop đang duyệt selectedKeys
+        loop.execute(() -> {
+            try {
+                loop.handOffToBlocking(key, channel, prefetched);
+            } catch (IOException e) {
+                Log.warn("legacy hand-off failed", e);
+                closeNow();
+            }
+        });
+    }
+
+    // Đóng ngay lập tức, chỉ gọi trên thread của event loop
+    void closeNow() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSED;
+        outbound.clear();
+        queued.set(0);
+        pending = null;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warn("close failed", e);
+        }
+        if (handler != null) {
+            dispatcher.execute(handler::onDisconnect);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package server;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+// Một Selector phục vụ nhiều kết nối; mọi thao tác trên channel đều chạy trên thread này
+class NioEventLoop implements Runnable {
+    private final Server server;
+    private final DatabaseManager dbManager;
+    private final Executor workers;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Buffer đọc dùng chung, kết nối chỉ giữ buffer riêng khi còn frame dở dang
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    NioEventLoop(Server server, DatabaseManager dbManager, Executor workers) throws IOException {
+        this.server = server;
+        this.dbManager = dbManager;
+        this.workers = workers;
+        this.selector = Selector.open();
+    }
+
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                NioConnection connection = new NioConnection(channel, this, server.getConfig().getOutboundQueueSize());
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                connection.start();
+            } catch (IOException e) {
+                Log.warn("channel registration failed", e);
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    Log.warn("close failed", ex);
+                }
+            }
+        });
+    }
+
+    // Đưa task vào hàng đợi để chạy trên thread của event loop
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (CancelledKeyException e) {
+                        connection.closeNow();
+                    } catch (IOException e) {
+                        connection.closeNow();
+                    }
+                }
+            } catch (IOException e) {
+                Log.error("event loop select failed", e);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.error("event loop task failed", e);
+            }
+        }
+    }
+
+    // Tạo ClientHandler cho kết nối đã bắt tay xong bằng frame
+    ClientHandler createHandler(NioConnection connection) {
+        return new ClientHandler(connection, server, dbManager);
+    }
+
+    Executor getWorkers() {
+        return workers;
+    }
+
+    // Client cũ dùng ObjectStream: trả channel về chế độ blocking và chạy như trước
+    void handOffToBlocking(SelectionKey key, SocketChannel channel, byte[] prefetched) throws IOException {
+        key.cancel();
+        selector.selectNow(); // Hủy đăng ký hẳn trước khi đổi chế độ blocking
+        channel.configureBlocking(true);
+        StreamConnection stream = new StreamConnection(channel.socket(), true, prefetched, server.getConfig(),
+                server.getOutboundWriters());
+        server.startHandler(new ClientHandler(stream, server, dbManager));
+    }
+}
@@ -0,0 +1,67 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chế độ truyền tải NIO: một thread accept, vài event-loop dùng Selector để đọc/ghi
+ * không chặn, và một pool worker để chạy ClientHandler.handleMessage (có gọi JDBC).
+ */
+class NioServer {
+    private final Server server;
+    private final DatabaseManager dbManager;
+    private final ServerConfig config;
+    private final NioEventLoop[] loops;
+    private final ExecutorService workers;
+
+    NioServer(Server server, DatabaseManager dbManager, ServerConfig config) throws IOException {
+        this.server = server;
+        this.dbManager = dbManager;
+        this.config = config;
+        if (config.isVirtualThreads()) {
+            // JDBC chặn trên virtual thread không chiếm worker cố định
+            this.workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("nio-worker-", 0).factory());
+        } else {
+            AtomicInteger workerCount = new AtomicInteger();
+            this.workers = Executors.newFixedThreadPool(config.getNioWorkers(), r -> {
+                Thread t = new Thread(r, "nio-worker-" + workerCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        this.loops = new NioEventLoop[config.getNioLoops()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop(server, dbManager, workers);
+        }
+    }
+
+    // Lắng nghe kết nối, không trả về
+    void run() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            Thread t = new Thread(loops[i], "nio-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(config.getPort()), config.getNioBacklog());
+            System.out.println("NIO: " + loops.length + " event loop, "
+                    + (config.isVirtualThreads() ? "virtual thread" : config.getNioWorkers()) + " worker");
+            int next = 0;
+            while (true) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+                    server.connectionAccepted();
+                    loops[next].register(channel);
+                    next = (next + 1) % loops.length;
+                } catch (IOException e) {
+                    Log.error("accept failed", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package server;
+
+import common.PresenceDelta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Nhật ký vòng các PresenceDelta gần nhất. Client nối lại với version cuối cùng đã thấy
+ * sẽ nhận phần thiếu từ đây; nếu đã bị ghi đè thì phải lấy lại toàn bộ user_list.
+ */
+class PresenceLog {
+
+    private final PresenceDelta[] ring;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long version = 0;
+
+    PresenceLog(int capacity) {
+        this.ring = new PresenceDelta[capacity];
+    }
+
+    PresenceDelta append(int userId, String username, int points, String status) {
+        lock.lock();
+        try {
+            PresenceDelta delta = new PresenceDelta(userId, username, points, status, ++version);
+            ring[(int) (version % ring.length)] = delta;
+            return delta;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long currentVersion() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Các delta có version > fromVersion, null nếu phần cần đã trôi khỏi vòng
+    List<PresenceDelta> since(long fromVersion) {
+        lock.lock();
+        try {
+            if (fromVersion > version || version - fromVersion > ring.length) {
+                return null;
+            }
+            List<PresenceDelta> result = new ArrayList<>((int) (version - fromVersion));
+            for (long v = fromVersion + 1; v <= version; v++) {
+                result.add(ring[(int) (v % ring.length)]);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
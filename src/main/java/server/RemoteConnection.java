@@ -0,0 +1,40 @@
+package server;
+
+import common.Message;
+
+import java.io.IOException;
+
+// Kết nối "ảo" của người chơi đang ở node khác: GameRoom gửi message như thường,
+// message được chuyển qua cluster về node đang giữ kết nối thật của người đó
+class RemoteConnection implements ClientConnection {
+    private final ClusterNode node;
+    private final int userId;
+    private final String homeNode;
+    private volatile boolean open = true;
+
+    RemoteConnection(ClusterNode node, int userId, String homeNode) {
+        this.node = node;
+        this.userId = userId;
+        this.homeNode = homeNode;
+    }
+
+    @Override
+    public void send(Message message) throws IOException {
+        node.send(homeNode, ClusterEvent.message(ClusterEvent.DELIVER, node.getNodeId(), userId, message));
+    }
+
+    // Phòng đã giải tán: báo node gốc để client được chơi tiếp, ngừng nhận nước đi
+    void roomClosed() {
+        node.roomClosed(userId, homeNode);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
@@ -4,25 +4,137 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import common.Message;
+import common.PresenceDelta;
 import common.User;
+import common.UserQuery;
+import common.UserStats;
 
 public class Server {
-    private static final int PORT = 12345;
+    private final ServerConfig config;
     private ServerSocket serverSocket;
     private DatabaseManager dbManager;
     private ConcurrentHashMap<Integer, ClientHandler> clientMap = new ConcurrentHashMap<>();
+    // Bảng trạng thái (online/ingame) là nguồn chính xác; users.status trong DB được ghi gộp theo sau
+    private final ConcurrentHashMap<Integer, String> presence = new ConcurrentHashMap<>();
+    // Danh bạ user trong bộ nhớ, phục vụ get_users thay cho SELECT * FROM users
+    private final UserDirectory userDirectory = new UserDirectory();
+    // Bảng xếp hạng trong bộ nhớ, phục vụ get_leaderboard thay cho câu GROUP BY trên match_details
+    private final Leaderboard leaderboard = new Leaderboard();
+    private final PresenceLog presenceLog;
+    // Dùng ReentrantLock thay cho synchronized để không ghim carrier thread của virtual thread
+    private final ReentrantLock clientLock = new ReentrantLock();
+    // Executor dùng chung chạy hộp thư của mọi GameRoom
+    private final ExecutorService roomExecutor;
+    // Bộ hẹn giờ dùng chung cho mọi GameRoom (chờ bắt đầu, hết giờ lượt, hỏi chơi lại)
+    private final TimingWheel roomTimer;
+    // Hàng đợi ghép trận tự động theo điểm
+    private final Matchmaker matchmaker;
+    // Chia sẻ presence, danh bạ và định tuyến message với các node khác
+    private final ClusterNode cluster;
+    private ThreadFactory virtualHandlerThreads;
+    // Thread ghi dùng chung, rút hàng đợi broadcast của các kết nối blocking
+    private final ExecutorService outboundWriters;
+    private final LongAdder broadcastDrops = new LongAdder();
+    private final LongAdder slowDisconnects = new LongAdder();
+    // Số liệu vận hành, xuất ra /metrics khi bật penalty.metrics.port
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Counter acceptedConnections = metrics.counter("penalty_connections_accepted_total",
+            "Số kết nối TCP đã chấp nhận");
+    private final Metrics.Family<Metrics.Histogram> fanoutTimes = metrics.histograms(
+            "penalty_broadcast_fanout_seconds", "Thời gian xếp một broadcast vào hàng đợi mọi kết nối", "kind");
+    private final Metrics.Counter fanoutRecipients = metrics.counter("penalty_broadcast_recipients_total",
+            "Tổng số kết nối nhận broadcast");
+    private final Metrics.Gauge activeRooms = metrics.gauge("penalty_rooms_active", "Số phòng đang chơi");
+    private final Metrics.Counter openedRooms = metrics.counter("penalty_rooms_opened_total", "Số phòng đã mở");
+    private final Metrics.Histogram roomLifetimes = metrics.histogram("penalty_room_lifetime_seconds",
+            "Thời gian sống của phòng, từ lúc mở tới khi giải tán");
 
     public Server() {
+        this(new ServerConfig());
+    }
+
+    public Server(ServerConfig config) {
+        this(config, config.isSocketCluster()
+                ? new SocketClusterBus(config.getClusterPeers())
+                : new LocalClusterBus());
+    }
+
+    // Chạy như một node trong cluster; các node dùng chung DB và cùng một ClusterBus
+    public Server(ServerConfig config, ClusterBus bus) {
+        this(config, bus, true);
+    }
+
+    // listen = false: chỉ dựng các bảng client/trạng thái và executor, không kết nối DB, không mở cổng
+    private Server(ServerConfig config, ClusterBus bus, boolean listen) {
+        this.config = config;
+        this.cluster = new ClusterNode(this, config.getClusterNodeId(), bus);
+        this.presenceLog = new PresenceLog(config.getPresenceLogSize());
+        if (config.isVirtualThreads()) {
+            virtualHandlerThreads = Thread.ofVirtual().name("client-", 0).factory();
+            roomExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("room-", 0).factory());
+            outboundWriters = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("writer-", 0).factory());
+        } else {
+            AtomicInteger writerCount = new AtomicInteger();
+            outboundWriters = Executors.newFixedThreadPool(config.getOutboundWriters(), r -> {
+                Thread t = new Thread(r, "writer-" + writerCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            AtomicInteger roomCount = new AtomicInteger();
+            roomExecutor = Executors.newFixedThreadPool(config.getRoomWorkers(), r -> {
+                Thread t = new Thread(r, "room-" + roomCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        roomTimer = new TimingWheel(roomExecutor, config.getTimerTickMillis(), config.getTimerWheelSize());
+        // Tạo phòng (có ghi DB) trên executor của phòng, không chặn thread ghép trận
+        matchmaker = new Matchmaker(config, (a, b) -> roomExecutor.execute(() -> startQueuedMatch(a, b)));
+        if (listen) {
+            run();
+        }
+    }
+
+    // Server chưa nối DB và không chạy vòng accept, dùng để đo broadcast/presence trong cùng tiến trình
+    static Server detached(ServerConfig config) {
+        return new Server(config, new LocalClusterBus(), false);
+    }
+
+    // Kết nối DB, nạp dữ liệu rồi chạy vòng accept (chặn tới khi server dừng)
+    private void run() {
         try {
-            serverSocket = new ServerSocket(PORT);
-            dbManager = new DatabaseManager();
-            // Reset tất cả status về offline khi server khởi động
-            resetAllUsersToOffline();
-            System.out.println("Server đã khởi động trên cổng " + PORT);
-            listenForClients();
+            dbManager = new DatabaseManager(config, metrics);
+            dbManager.start();
+            // Node khác đã chạy thì status trong DB là của user đang kết nối ở đó: không reset,
+            // trạng thái hiện tại đến qua ảnh chụp của các node đó
+            if (cluster.start()) {
+                System.out.println("Cluster đã có node khác, giữ nguyên status users trong DB");
+            } else {
+                resetAllUsersToOffline();
+            }
+            loadUserDirectory();
+            loadLeaderboard();
+            registerMetrics();
+            startMetricsEndpoint();
+            System.out.println("Server " + cluster.getNodeId() + " đã khởi động trên cổng " + config.getPort()
+                    + " (" + config.getTransport() + ")");
+            if (config.isNio()) {
+                new NioServer(this, dbManager, config).run();
+            } else {
+                serverSocket = new ServerSocket(config.getPort());
+                listenForClients();
+            }
         } catch (IOException | SQLException e) {
             e.printStackTrace();
         }
@@ -39,27 +151,367 @@ public class Server {
         }
     }
 
+    private void loadUserDirectory() throws SQLException {
+        userDirectory.loadAll(dbManager.getUserDirectory());
+        System.out.println("Đã nạp " + userDirectory.size() + " user vào danh bạ");
+    }
+
+    // Số liệu đọc từ các bộ đếm sẵn có, lấy giá trị lúc scrape
+    private void registerMetrics() {
+        metrics.gauge("penalty_clients_logged_in", "Số client đã đăng nhập trên node này", clientMap::size);
+        metrics.gauge("penalty_users_present", "Số user đang online/ingame trên toàn cluster", presence::size);
+        metrics.counter("penalty_broadcast_dropped_total", "Số broadcast bị bỏ vì hàng đợi client đầy",
+                broadcastDrops::sum);
+        metrics.counter("penalty_slow_consumer_disconnects_total", "Số client chậm bị ngắt", slowDisconnects::sum);
+        metrics.gauge("penalty_matchmaking_waiting", "Số người đang chờ trong hàng ghép trận", matchmaker::size);
+        metrics.counter("penalty_matchmaking_matches_total", "Số trận ghép được từ hàng đợi",
+                matchmaker::getMatchCount);
+        metrics.counter("penalty_timer_expired_total", "Số hẹn giờ của phòng đã chạy", roomTimer::getExpiredCount);
+        metrics.counter("penalty_log_dropped_total", "Số dòng log bị bỏ vì ring buffer đầy", Log::getDroppedCount);
+        metrics.gauge("penalty_serialization_handles", "Tổng số object trong handle table của các kết nối legacy",
+                () -> handleTableSize(false));
+        metrics.gauge("penalty_serialization_handles_max", "Handle table lớn nhất trong các kết nối legacy",
+                () -> handleTableSize(true));
+    }
+
+    // Tổng (hoặc lớn nhất) kích thước handle table trên các client đã đăng nhập
+    private long handleTableSize(boolean max) {
+        long result = 0;
+        for (ClientHandler client : clientMap.values()) {
+            int size = client.getHandleTableSize();
+            result = max ? Math.max(result, size) : result + size;
+        }
+        return result;
+    }
+
+    private void startMetricsEndpoint() {
+        if (config.getMetricsPort() <= 0) {
+            return;
+        }
+        try {
+            new MetricsEndpoint(metrics, config.getMetricsHost(), config.getMetricsPort()).start();
+            System.out.println("Metrics: http://" + config.getMetricsHost() + ":" + config.getMetricsPort()
+                    + "/metrics");
+        } catch (IOException e) {
+            // Không có metrics thì server vẫn chạy
+            System.err.println("Không mở được cổng metrics " + config.getMetricsPort() + ": " + e.getMessage());
+        }
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    // Gọi khi chấp nhận một kết nối TCP (blocking hoặc NIO)
+    void connectionAccepted() {
+        acceptedConnections.inc();
+    }
+
+    void roomOpened() {
+        openedRooms.inc();
+        activeRooms.inc();
+    }
+
+    void roomClosed(long lifetimeNanos) {
+        activeRooms.dec();
+        roomLifetimes.record(lifetimeNanos);
+    }
+
+    UserDirectory getUserDirectory() {
+        return userDirectory;
+    }
+
+    private void loadLeaderboard() throws SQLException {
+        leaderboard.loadAll(dbManager.getLeaderboardWithStats());
+        System.out.println("Đã nạp " + leaderboard.size() + " user vào bảng xếp hạng");
+    }
+
+    Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    ClusterNode getCluster() {
+        return cluster;
+    }
+
+    // User mới đăng ký: thêm vào danh bạ, bảng xếp hạng và báo cho các node khác
+    void addUser(int userId, String username) {
+        applyRemoteUser(userId, username);
+        cluster.publish(ClusterEvent.user(cluster.getNodeId(), userId, username));
+    }
+
+    void applyRemoteUser(int userId, String username) {
+        if (userDirectory.get(userId) == null) {
+            userDirectory.put(new User(userId, username, 0, null));
+        }
+        leaderboard.addUser(userId, username);
+    }
+
+    // Cộng điểm sau trận (DB đã được GameRoom cập nhật)
+    void addPoints(int userId, int points) {
+        applyRemotePoints(userId, points);
+        cluster.publish(ClusterEvent.points(cluster.getNodeId(), userId, points));
+    }
+
+    void applyRemotePoints(int userId, int points) {
+        userDirectory.addPoints(userId, points);
+        leaderboard.addPoints(userId, points);
+    }
+
+    void recordKick(int shooterId, int goalkeeperId, boolean goal) {
+        leaderboard.recordKick(shooterId, goalkeeperId, goal);
+        cluster.publish(ClusterEvent.kick(cluster.getNodeId(), shooterId, goalkeeperId, goal));
+    }
+
+    // n người đứng đầu bảng xếp hạng kèm trạng thái hiện tại
+    public List<UserStats> topPlayers(int n) {
+        return leaderboard.top(n, this::getUserStatus);
+    }
+
+    // Danh sách user cho get_users: không tham số thì trả toàn bộ, có UserQuery thì lọc và phân trang
+    public List<User> listUsers(UserQuery query) {
+        if (query == null) {
+            return userDirectory.all(this::getUserStatus);
+        }
+        return userDirectory.query(query, this::getUserStatus);
+    }
+
+    // Đổi trạng thái user: cập nhật bảng trạng thái ngay, DB được ghi gộp ở nền,
+    // rồi phát presence_delta (client cũ nhận status_update dạng chữ)
+    public void setUserStatus(User user, String status) {
+        user.setStatus(status);
+        updatePresence(user.getId(), user.getUsername(), user.getPoints(), status, true);
+    }
+
+    // Trạng thái do node khác đổi; node đó đã ghi DB
+    void applyRemoteStatus(int userId, String username, String status) {
+        updatePresence(userId, username, 0, status, false);
+    }
+
+    private void updatePresence(int userId, String username, int fallbackPoints, String status, boolean local) {
+        // Giữ clientLock để delta được gửi đi đúng thứ tự version trên mọi kết nối
+        clientLock.lock();
+        try {
+            String previous = "offline".equals(status)
+                    ? presence.remove(userId)
+                    : presence.put(userId, status);
+            userDirectory.setOnline(userId, !"offline".equals(status));
+            if (status.equals(previous == null ? "offline" : previous)) {
+                return;
+            }
+            if (local) {
+                dbManager.queueUserStatus(userId, status);
+                cluster.publish(ClusterEvent.presence(cluster.getNodeId(), userId, username, status));
+            }
+            User entry = userDirectory.get(userId);
+            int points = entry != null ? entry.getPoints() : fallbackPoints;
+            PresenceDelta delta = presenceLog.append(userId, username, points, status);
+            Broadcast deltaMessage = new Broadcast(new Message("presence_delta", delta));
+            Broadcast legacyMessage = new Broadcast(new Message("status_update", username + " is " + status));
+            long start = System.nanoTime();
+            int recipients = 0;
+            for (ClientHandler client : clientMap.values()) {
+                deliver(client, client.isLegacyClient() ? legacyMessage : deltaMessage);
+                recipients++;
+            }
+            fanoutTimes.labels("presence").recordSince(start);
+            fanoutRecipients.add(recipients);
+        } finally {
+            clientLock.unlock();
+        }
+    }
+
+    // Gửi cho client các delta sau fromVersion; nếu đã trôi khỏi nhật ký thì gửi lại toàn bộ user_list
+    void sendPresenceSince(ClientHandler client, long fromVersion) {
+        clientLock.lock();
+        try {
+            List<PresenceDelta> missed = presenceLog.since(fromVersion);
+            if (missed == null) {
+                client.sendMessage(new Message("user_list", listUsers(null)));
+            } else {
+                client.sendMessage(new Message("presence_delta", missed));
+            }
+        } finally {
+            clientLock.unlock();
+        }
+    }
+
+    // Trạng thái hiện tại của user, "offline" nếu không có trong bảng
+    public String getUserStatus(int userId) {
+        return presence.getOrDefault(userId, "offline");
+    }
+
     // Thêm client vào bản đồ
-    public synchronized void addClient(int userId, ClientHandler clientHandler) {
-        clientMap.put(userId, clientHandler);
+    public void addClient(int userId, ClientHandler clientHandler) {
+        clientLock.lock();
+        try {
+            clientMap.put(userId, clientHandler);
+            cluster.publish(ClusterEvent.of(ClusterEvent.ATTACH, cluster.getNodeId(), userId));
+        } finally {
+            clientLock.unlock();
+        }
     }
 
     // Lấy client theo ID
-    public synchronized ClientHandler getClientById(int userId) {
-        return clientMap.get(userId);
+    public ClientHandler getClientById(int userId) {
+        clientLock.lock();
+        try {
+            return clientMap.get(userId);
+        } finally {
+            clientLock.unlock();
+        }
+    }
+
+    // Các client đã đăng nhập trên node này
+    List<ClientHandler> localClients() {
+        clientLock.lock();
+        try {
+            return new ArrayList<>(clientMap.values());
+        } finally {
+            clientLock.unlock();
+        }
+    }
+
+    // Gửi cho node vừa vào cluster vị trí và trạng thái các user của node này. Giữ clientLock như khi phát
+    // ATTACH/DETACH/presence, để ảnh chụp không đến sau (và đè lên) một thay đổi mới hơn
+    void sendClusterSnapshot(String node) {
+        clientLock.lock();
+        try {
+            for (ClientHandler client : clientMap.values()) {
+                User user = client.getUser();
+                cluster.send(node, ClusterEvent.of(ClusterEvent.ATTACH, cluster.getNodeId(), user.getId()));
+                cluster.send(node, ClusterEvent.presence(cluster.getNodeId(), user.getId(), user.getUsername(),
+                        getUserStatus(user.getId())));
+            }
+        } finally {
+            clientLock.unlock();
+        }
     }
 
     // Loại bỏ client khỏi bản đồ
-    public synchronized void removeClient(ClientHandler clientHandler) {
-        if (clientHandler.getUser() != null) {
-            clientMap.remove(clientHandler.getUser().getId());
+    public void removeClient(ClientHandler clientHandler) {
+        clientLock.lock();
+        try {
+            if (clientHandler.getUser() != null) {
+                int userId = clientHandler.getUser().getId();
+                // Chỉ gỡ nếu còn là kết nối hiện tại, kết nối cũ dọn dẹp muộn không gỡ nhầm lần đăng nhập mới
+                if (clientMap.remove(userId, clientHandler)) {
+                    cluster.publish(ClusterEvent.of(ClusterEvent.DETACH, cluster.getNodeId(), userId));
+                    matchmaker.leave(userId);
+                }
+            }
+        } finally {
+            clientLock.unlock();
         }
     }
 
-    // Gửi tin nhắn tới tất cả client
-    public synchronized void broadcast(Message message) {
-        for (ClientHandler client : clientMap.values()) {
-            client.sendMessage(message);
+    // Gửi tin nhắn tới tất cả client: mã hóa một lần cho mỗi codec rồi chỉ xếp vào hàng đợi từng kết nối,
+    // client chậm không làm nghẽn những client khác
+    public void broadcast(Message message) {
+        applyRemoteBroadcast(message);
+        cluster.publish(ClusterEvent.message(ClusterEvent.BROADCAST, cluster.getNodeId(), 0, message));
+    }
+
+    // Chỉ gửi cho client của node này
+    void applyRemoteBroadcast(Message message) {
+        Broadcast broadcast = new Broadcast(message);
+        clientLock.lock();
+        try {
+            long start = System.nanoTime();
+            int recipients = 0;
+            for (ClientHandler client : clientMap.values()) {
+                deliver(client, broadcast);
+                recipients++;
+            }
+            fanoutTimes.labels("broadcast").recordSince(start);
+            fanoutRecipients.add(recipients);
+        } finally {
+            clientLock.unlock();
+        }
+    }
+
+    private void deliver(ClientHandler client, Broadcast broadcast) {
+        if (client.sendBroadcast(broadcast)) {
+            return;
+        }
+        // Hàng đợi của client đã đầy
+        if (ServerConfig.SLOW_DROP.equals(config.getSlowConsumerPolicy())) {
+            broadcastDrops.increment();
+        } else {
+            slowDisconnects.increment();
+            client.disconnectSlowConsumer();
+        }
+    }
+
+    ExecutorService getOutboundWriters() {
+        return outboundWriters;
+    }
+
+    long getBroadcastDropCount() {
+        return broadcastDrops.sum();
+    }
+
+    long getSlowDisconnectCount() {
+        return slowDisconnects.sum();
+    }
+
+    Executor getRoomExecutor() {
+        return roomExecutor;
+    }
+
+    Matchmaker getMatchmaker() {
+        return matchmaker;
+    }
+
+    // Hai người vừa được ghép; ai đã thoát hoặc đã vào trận khác thì người còn lại được xếp hàng lại
+    private void startQueuedMatch(ClientHandler a, ClientHandler b) {
+        if (isAvailable(a) && isAvailable(b)) {
+            try {
+                // Lời mời được chấp nhận cùng lúc có thể đã giữ chỗ một trong hai: khi đó không mở phòng
+                if (a.startMatchWith(b)) {
+                    return;
+                }
+            } catch (SQLException e) {
+                Log.error("queued match failed", "error", e.getMessage());
+                a.sendMessage(new Message("queue_status", "unavailable"));
+                b.sendMessage(new Message("queue_status", "unavailable"));
+                return;
+            }
+        }
+        if (isAvailable(a)) {
+            matchmaker.join(a, pointsOf(a.getUser()));
+        }
+        if (isAvailable(b)) {
+            matchmaker.join(b, pointsOf(b.getUser()));
+        }
+    }
+
+    // Client còn kết nối, chưa ở phòng nào và đang online: dùng chung cho hàng đợi và lời mời
+    boolean isAvailable(ClientHandler client) {
+        return client.getUser() != null && getClientById(client.getUser().getId()) == client
+                && !client.isInGame() && "online".equals(getUserStatus(client.getUser().getId()));
+    }
+
+    // Điểm hiện tại theo danh bạ (được cập nhật sau mỗi trận)
+    int pointsOf(User user) {
+        User entry = userDirectory.get(user.getId());
+        return entry != null ? entry.getPoints() : user.getPoints();
+    }
+
+    TimingWheel getRoomTimer() {
+        return roomTimer;
+    }
+
+    ServerConfig getConfig() {
+        return config;
+    }
+
+    // Chạy vòng lặp đọc blocking của một client
+    void startHandler(ClientHandler clientHandler) {
+        if (config.isVirtualThreads()) {
+            virtualHandlerThreads.newThread(clientHandler).start();
+        } else {
+            new Thread(clientHandler).start();
         }
     }
 
@@ -68,16 +520,32 @@ public class Server {
         while (true) {
             try {
                 Socket socket = serverSocket.accept();
-                System.out.println("Đã có kết nối từ " + socket.getInetAddress());
+                connectionAccepted();
+                Log.debug("connection accepted", "remote", socket.getRemoteSocketAddress());
                 ClientHandler clientHandler = new ClientHandler(socket, this, dbManager);
-                new Thread(clientHandler).start();
+                startHandler(clientHandler);
             } catch (IOException e) {
-                e.printStackTrace();
+                Log.error("accept failed", e);
             }
         }
     }
 
     public static void main(String[] args) {
-        new Server();
+        ServerConfig config = new ServerConfig();
+        if (config.getClusterNodes() <= 1) {
+            new Server(config);
+            return;
+        }
+        // Nhiều node trong cùng tiến trình trên các cổng liên tiếp, dùng chung một LocalClusterBus
+        LocalClusterBus bus = new LocalClusterBus();
+        for (int i = 0; i < config.getClusterNodes(); i++) {
+            ServerConfig nodeConfig = new ServerConfig();
+            nodeConfig.setPort(config.getPort() + i);
+            nodeConfig.setClusterNodeId("node-" + nodeConfig.getPort());
+            if (config.getMetricsPort() > 0) {
+                nodeConfig.setMetricsPort(config.getMetricsPort() + i);
+            }
+            new Thread(() -> new Server(nodeConfig, bus), "node-" + nodeConfig.getPort()).start();
+        }
     }
 }
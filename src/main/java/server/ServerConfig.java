@@ -0,0 +1,283 @@
+package server;
+
+import common.ManagedObjectOutputStream;
+
+/**
+ * Cấu hình khởi động của server, đọc từ system property (-Dpenalty.xxx=...).
+ */
+public class ServerConfig {
+
+    public static final String TRANSPORT_BLOCKING = "blocking";
+    public static final String TRANSPORT_NIO = "nio";
+    public static final String SLOW_DISCONNECT = "disconnect";
+    public static final String SLOW_DROP = "drop";
+    public static final String CLUSTER_LOCAL = "local";
+    public static final String CLUSTER_SOCKET = "socket";
+
+    private int port = Integer.getInteger("penalty.port", 12345);
+    // "blocking": mỗi client một thread; "nio": Selector + vài event-loop thread
+    private String transport = System.getProperty("penalty.transport", TRANSPORT_BLOCKING);
+    private int nioLoops = Integer.getInteger("penalty.nio.loops",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private int nioWorkers = Integer.getInteger("penalty.nio.workers",
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    private int nioBacklog = Integer.getInteger("penalty.nio.backlog", 1024);
+    // Chạy ClientHandler và công việc của GameRoom trên virtual thread (Java 21)
+    private boolean virtualThreads = Boolean.getBoolean("penalty.virtualThreads");
+    // Broadcast: số message tối đa chờ gửi trên mỗi kết nối, số thread ghi (blocking),
+    // và cách xử lý client chậm khi hàng đợi đầy: "disconnect" hoặc "drop"
+    private int outboundQueueSize = Integer.getInteger("penalty.broadcast.queueSize", 256);
+    private int outboundWriters = Integer.getInteger("penalty.broadcast.writers",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private String slowConsumerPolicy = System.getProperty("penalty.broadcast.slowPolicy", SLOW_DISCONNECT);
+    // Ngưỡng reset ObjectOutputStream của client cũ: số message hoặc số byte kể từ lần reset trước
+    private int serializationResetMessages = ManagedObjectOutputStream.DEFAULT_RESET_MESSAGES;
+    private long serializationResetBytes = ManagedObjectOutputStream.DEFAULT_RESET_BYTES;
+
+    private String dbUrl = System.getProperty("penalty.db.url", "jdbc:mysql://localhost:3306/penalty_shootout?useServerPrepStmts=true&rewriteBatchedStatements=true");
+    private String dbUser = System.getProperty("penalty.db.user", "root");
+    private String dbPassword = System.getProperty("penalty.db.password", "123456");
+    // Connection pool: số connection tối đa, thời gian chờ mượn, tuổi thọ tối đa,
+    // và thời gian idle mà sau đó connection phải được kiểm tra lại trước khi trả ra
+    private int dbPoolSize = Integer.getInteger("penalty.db.poolSize",
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    private long dbBorrowTimeoutMillis = Long.getLong("penalty.db.borrowTimeoutMs", 5000);
+    private long dbMaxLifetimeMillis = Long.getLong("penalty.db.maxLifetimeMs", 30 * 60 * 1000);
+    private long dbValidationIdleMillis = Long.getLong("penalty.db.validationIdleMs", 1000);
+    // Số PreparedStatement giữ lại trên mỗi connection (LRU)
+    private int dbStatementCacheSize = Integer.getInteger("penalty.db.statementCacheSize", 64);
+    // Ghi match_details dạng batch: số dòng mỗi batch, chu kỳ flush, sức chứa hàng đợi
+    private int kickBatchSize = Integer.getInteger("penalty.db.kickBatchSize", 100);
+    private long kickFlushMillis = Long.getLong("penalty.db.kickFlushMs", 200);
+    private int kickQueueCapacity = Integer.getInteger("penalty.db.kickQueueCapacity", 10000);
+    // Chu kỳ ghi gộp users.status
+    private long statusFlushMillis = Long.getLong("penalty.db.statusFlushMs", 250);
+    // Số presence_delta gần nhất giữ lại cho client nối lại bằng presence_sync
+    private int presenceLogSize = Integer.getInteger("penalty.presence.logSize", 4096);
+    // Số dòng bảng xếp hạng trả về cho get_leaderboard không tham số
+    private int leaderboardSize = Integer.getInteger("penalty.leaderboard.size", 100);
+    // Bộ hẹn giờ dùng chung của các phòng: độ dài một tick và số ô của bánh xe
+    private long timerTickMillis = Long.getLong("penalty.timer.tickMs", 100);
+    private int timerWheelSize = Integer.getInteger("penalty.timer.wheelSize", 512);
+    // Ghép trận tự động: chu kỳ ghép, chênh lệch điểm cho phép ban đầu,
+    // mức nới thêm mỗi giây chờ và mức tối đa
+    private long matchmakingTickMillis = Long.getLong("penalty.matchmaking.tickMs", 200);
+    private int matchmakingWindow = Integer.getInteger("penalty.matchmaking.window", 30);
+    private int matchmakingWidenPerSecond = Integer.getInteger("penalty.matchmaking.widenPerSecond", 10);
+    private int matchmakingMaxWindow = Integer.getInteger("penalty.matchmaking.maxWindow", 1000);
+    // Cluster: id của node (mặc định theo cổng) và số node chạy chung một tiến trình khi gọi Server.main
+    private String clusterNodeId = System.getProperty("penalty.cluster.nodeId");
+    private int clusterNodes = Integer.getInteger("penalty.cluster.nodes", 1);
+    // "socket": mỗi node là một tiến trình, nối nhau qua TCP theo danh sách peers "id=host:port,..."
+    // (giống nhau trên mọi node, kể cả chính nó). Node khởi động đầu tiên reset status trong DB,
+    // các node sau thấy cluster đã có node khác thì giữ nguyên, nên nên khởi động lần lượt
+    private String clusterBus = System.getProperty("penalty.cluster.bus", CLUSTER_LOCAL);
+    private String clusterPeers = System.getProperty("penalty.cluster.peers", "");
+    // Cổng HTTP xuất số liệu dạng Prometheus tại /metrics (0 = tắt), mặc định chỉ nghe trên loopback
+    private int metricsPort = Integer.getInteger("penalty.metrics.port", 0);
+    private String metricsHost = System.getProperty("penalty.metrics.host", "127.0.0.1");
+    // Số thread xử lý hộp thư của các GameRoom và task hẹn giờ (bỏ qua khi bật virtual thread)
+    private int roomWorkers = Integer.getInteger("penalty.room.workers",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    public boolean isNio() {
+        return TRANSPORT_NIO.equalsIgnoreCase(transport);
+    }
+
+    public int getNioLoops() {
+        return nioLoops;
+    }
+
+    public int getNioWorkers() {
+        return nioWorkers;
+    }
+
+    public int getNioBacklog() {
+        return nioBacklog;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public int getSerializationResetMessages() {
+        return serializationResetMessages;
+    }
+
+    public long getSerializationResetBytes() {
+        return serializationResetBytes;
+    }
+
+    public String getDbUrl() {
+        return dbUrl;
+    }
+
+    public void setDbUrl(String dbUrl) {
+        this.dbUrl = dbUrl;
+    }
+
+    public String getDbUser() {
+        return dbUser;
+    }
+
+    public void setDbUser(String dbUser) {
+        this.dbUser = dbUser;
+    }
+
+    public String getDbPassword() {
+        return dbPassword;
+    }
+
+    public void setDbPassword(String dbPassword) {
+        this.dbPassword = dbPassword;
+    }
+
+    public int getDbPoolSize() {
+        return dbPoolSize;
+    }
+
+    public void setDbPoolSize(int dbPoolSize) {
+        this.dbPoolSize = dbPoolSize;
+    }
+
+    public long getDbBorrowTimeoutMillis() {
+        return dbBorrowTimeoutMillis;
+    }
+
+    public long getDbMaxLifetimeMillis() {
+        return dbMaxLifetimeMillis;
+    }
+
+    public long getDbValidationIdleMillis() {
+        return dbValidationIdleMillis;
+    }
+
+    public int getDbStatementCacheSize() {
+        return dbStatementCacheSize;
+    }
+
+    public int getKickBatchSize() {
+        return kickBatchSize;
+    }
+
+    public long getKickFlushMillis() {
+        return kickFlushMillis;
+    }
+
+    public int getKickQueueCapacity() {
+        return kickQueueCapacity;
+    }
+
+    public long getStatusFlushMillis() {
+        return statusFlushMillis;
+    }
+
+    public int getPresenceLogSize() {
+        return presenceLogSize;
+    }
+
+    public int getLeaderboardSize() {
+        return leaderboardSize;
+    }
+
+    public long getTimerTickMillis() {
+        return timerTickMillis;
+    }
+
+    public int getTimerWheelSize() {
+        return timerWheelSize;
+    }
+
+    public int getRoomWorkers() {
+        return roomWorkers;
+    }
+
+    public long getMatchmakingTickMillis() {
+        return matchmakingTickMillis;
+    }
+
+    public int getMatchmakingWindow() {
+        return matchmakingWindow;
+    }
+
+    public int getMatchmakingWidenPerSecond() {
+        return matchmakingWidenPerSecond;
+    }
+
+    public int getMatchmakingMaxWindow() {
+        return matchmakingMaxWindow;
+    }
+
+    public String getClusterNodeId() {
+        return clusterNodeId != null ? clusterNodeId : "node-" + port;
+    }
+
+    public void setClusterNodeId(String clusterNodeId) {
+        this.clusterNodeId = clusterNodeId;
+    }
+
+    public int getClusterNodes() {
+        return clusterNodes;
+    }
+
+    public boolean isSocketCluster() {
+        return CLUSTER_SOCKET.equalsIgnoreCase(clusterBus);
+    }
+
+    public String getClusterPeers() {
+        return clusterPeers;
+    }
+
+    public void setClusterPeers(String clusterPeers) {
+        this.clusterBus = CLUSTER_SOCKET;
+        this.clusterPeers = clusterPeers;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public String getMetricsHost() {
+        return metricsHost;
+    }
+
+    public int getOutboundQueueSize() {
+        return outboundQueueSize;
+    }
+
+    public int getOutboundWriters() {
+        return outboundWriters;
+    }
+
+    public String getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    public void setSlowConsumerPolicy(String slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+}
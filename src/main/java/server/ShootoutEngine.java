@@ -0,0 +1,128 @@
+package server;
+
+/**
+ * Luật loạt sút luân lưu dưới dạng máy trạng thái dựng sẵn thành bảng.
+ * Trạng thái là một số int nhỏ: 5 round chính thức mã hóa (round, bàn của người sút trước,
+ * bàn của người sút sau, lượt trong round), sudden death chỉ cần biết lượt và kết quả lượt đầu.
+ * Mỗi lượt sút tra bảng một lần để biết bước tiếp theo, không cấp phát gì, nên dùng được
+ * cả ngoài GameRoom để mô phỏng hàng triệu trận.
+ *
+ * "Người sút trước" là người sút đầu tiên của mỗi round (vai được đổi sau mỗi lượt,
+ * nên người này luôn sút trước trong mọi round của một trận).
+ */
+public final class ShootoutEngine {
+
+    public static final int MAX_ROUNDS = 5;
+    public static final int WIN_SCORE = 3;
+
+    // Bước tiếp theo sau một lượt sút
+    // Đổi vai, người còn lại sút trong cùng round
+    public static final int NEXT_KICK = 0;
+    // Sang round mới (có thể là vào sudden death), đổi vai
+    public static final int NEXT_ROUND = 1;
+    // Trận đã có người thắng, so tỷ số để biết ai
+    public static final int END = 2;
+
+    private static final int SCORES = MAX_ROUNDS + 1;
+    private static final int REGULATION_STATES = MAX_ROUNDS * SCORES * SCORES * 2;
+    // Sudden death: lượt đầu; lượt sau khi người đầu trượt; lượt sau khi người đầu ghi
+    private static final int SUDDEN_DEATH_FIRST = REGULATION_STATES;
+    private static final int SUDDEN_DEATH_MISSED = REGULATION_STATES + 1;
+    private static final int SUDDEN_DEATH_SCORED = REGULATION_STATES + 2;
+    private static final int STATES = REGULATION_STATES + 3;
+
+    public static final int START = regulation(1, 0, 0, 0);
+
+    // TRANSITIONS[state * 2 + goal] = (bước << 16) | trạng thái tiếp theo
+    private static final int[] TRANSITIONS = new int[STATES * 2];
+    // Trận đã phân định ngay tại trạng thái này (kiểm tra khi người sút hết giờ)
+    private static final boolean[] DECIDED = new boolean[STATES];
+
+    static {
+        for (int round = 1; round <= MAX_ROUNDS; round++) {
+            for (int first = 0; first < SCORES; first++) {
+                for (int second = 0; second < SCORES; second++) {
+                    for (int half = 0; half < 2; half++) {
+                        int state = regulation(round, first, second, half);
+                        DECIDED[state] = isDecided(round, first, second);
+                        for (int goal = 0; goal < 2; goal++) {
+                            TRANSITIONS[state * 2 + goal] = regulationStep(round, first, second, half, goal);
+                        }
+                    }
+                }
+            }
+        }
+        TRANSITIONS[SUDDEN_DEATH_FIRST * 2] = pack(NEXT_KICK, SUDDEN_DEATH_MISSED);
+        TRANSITIONS[SUDDEN_DEATH_FIRST * 2 + 1] = pack(NEXT_KICK, SUDDEN_DEATH_SCORED);
+        // Cùng trượt hoặc cùng ghi thì đá tiếp, khác nhau thì kết thúc
+        TRANSITIONS[SUDDEN_DEATH_MISSED * 2] = pack(NEXT_ROUND, SUDDEN_DEATH_FIRST);
+        TRANSITIONS[SUDDEN_DEATH_MISSED * 2 + 1] = pack(END, SUDDEN_DEATH_FIRST);
+        TRANSITIONS[SUDDEN_DEATH_SCORED * 2] = pack(END, SUDDEN_DEATH_FIRST);
+        TRANSITIONS[SUDDEN_DEATH_SCORED * 2 + 1] = pack(NEXT_ROUND, SUDDEN_DEATH_FIRST);
+    }
+
+    private ShootoutEngine() {
+    }
+
+    // Kết quả tra bảng cho một lượt sút; tách bằng action() và state()
+    public static int next(int state, boolean goal) {
+        return TRANSITIONS[state * 2 + (goal ? 1 : 0)];
+    }
+
+    public static int action(int transition) {
+        return transition >>> 16;
+    }
+
+    public static int state(int transition) {
+        return transition & 0xFFFF;
+    }
+
+    // Trận đã phân định dù round hiện tại chưa xong
+    public static boolean isDecided(int state) {
+        return DECIDED[state];
+    }
+
+    public static boolean isSuddenDeath(int state) {
+        return state >= SUDDEN_DEATH_FIRST;
+    }
+
+    // Người sút trước đang tới lượt (lượt đầu của round)
+    public static boolean isFirstKick(int state) {
+        return state >= SUDDEN_DEATH_FIRST ? state == SUDDEN_DEATH_FIRST : (state & 1) == 0;
+    }
+
+    private static int regulation(int round, int first, int second, int half) {
+        return (((round - 1) * SCORES + first) * SCORES + second) * 2 + half;
+    }
+
+    private static int pack(int action, int state) {
+        return (action << 16) | state;
+    }
+
+    private static int regulationStep(int round, int first, int second, int half, int goal) {
+        if (half == 0) {
+            return pack(NEXT_KICK, regulation(round, first + goal, second, 1));
+        }
+        second += goal;
+        int nextRound = round + 1;
+        // Hết 5 round mà hòa thì vào sudden death
+        if (nextRound > MAX_ROUNDS && first == second) {
+            return pack(NEXT_ROUND, SUDDEN_DEATH_FIRST);
+        }
+        if (isDecided(nextRound, first, second)) {
+            return pack(END, SUDDEN_DEATH_FIRST);
+        }
+        return pack(NEXT_ROUND, regulation(nextRound, first, second, 0));
+    }
+
+    // Điều kiện kết thúc sớm của 5 round chính thức, round là round sắp đá
+    private static boolean isDecided(int round, int first, int second) {
+        int scoreDifference = Math.abs(first - second);
+        int roundsPlayed = round - 1;
+        int turnsLeftFirst = first >= WIN_SCORE ? 0 : WIN_SCORE - roundsPlayed / 2;
+        int turnsLeftSecond = second >= WIN_SCORE ? 0 : WIN_SCORE - roundsPlayed / 2;
+        return (turnsLeftFirst < scoreDifference && first < second)
+                || (turnsLeftSecond < scoreDifference && second < first)
+                || ((round > MAX_ROUNDS || first >= WIN_SCORE || second >= WIN_SCORE) && first != second);
+    }
+}
@@ -0,0 +1,335 @@
+package server;
+
+import common.ManagedObjectOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ClusterBus qua TCP, để các node chạy ở các tiến trình khác nhau. Mọi node có cùng danh sách peers
+ * (id=host:port, kể cả chính nó); mỗi node nghe trên địa chỉ của mình và mở một kết nối gửi tới
+ * từng node khác. Sự kiện tới một node được ghi lần lượt trên kết nối đó nên giữ đúng thứ tự gửi;
+ * sự kiện nhận từ mọi kết nối vào được xử lý tuần tự trên một hàng đợi như LocalClusterBus.
+ *
+ * Một node là thành viên khi kết nối gửi tới nó đang mở. Kết nối gửi hoặc nhận với một node bị đứt
+ * thì cả hai chiều bị đóng, node đó được báo là đã rời và được nối lại định kỳ; khi nối lại, hai bên
+ * đều nhận onMemberJoined và gửi lại ảnh chụp trạng thái cho nhau. Sự kiện là object Java serialize,
+ * nên chỉ nghe trên loopback hoặc mạng nội bộ tin cậy.
+ */
+public class SocketClusterBus implements ClusterBus {
+
+    private static final long RECONNECT_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int CONNECT_TIMEOUT_MILLIS = 500;
+    // Node nhận không theo kịp thì ngắt kết nối, khi nối lại sẽ đồng bộ lại bằng ảnh chụp
+    private static final int LINK_QUEUE_CAPACITY = 65536;
+    private static final ObjectInputFilter EVENT_FILTER =
+            ObjectInputFilter.Config.createFilter("server.ClusterEvent;common.*;java.base/*;!*");
+
+    // Kết nối gửi tới một node khác
+    private static final class Link {
+        final Socket socket;
+        final ManagedObjectOutputStream out;
+        final BlockingQueue<ClusterEvent> queue = new LinkedBlockingQueue<>(LINK_QUEUE_CAPACITY);
+        volatile boolean open = true;
+
+        Link(Socket socket, ManagedObjectOutputStream out) {
+            this.socket = socket;
+            this.out = out;
+        }
+
+        void close() {
+            open = false;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private final Map<String, InetSocketAddress> peers;
+    private final Map<String, Link> links = new ConcurrentHashMap<>();
+    // Kết nối vào từ mỗi node, để đóng cùng lúc với kết nối gửi
+    private final Map<String, Socket> inbound = new ConcurrentHashMap<>();
+    // Thread giữ kết nối gửi của mỗi node, để đánh thức khi node đó vừa nối vào
+    private final Map<String, Thread> linkThreads = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private volatile boolean running;
+    private String nodeId;
+    private Listener listener;
+    private SerialExecutor inbox;
+    private ServerSocket serverSocket;
+
+    // peers dạng "node-a=127.0.0.1:24001,node-b=127.0.0.1:24002"
+    public SocketClusterBus(String peers) {
+        this.peers = parsePeers(peers);
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "cluster-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static Map<String, InetSocketAddress> parsePeers(String spec) {
+        Map<String, InetSocketAddress> result = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            int colon = entry.lastIndexOf(':');
+            if (eq <= 0 || colon < eq) {
+                throw new IllegalArgumentException("Peer không hợp lệ (cần id=host:port): " + entry);
+            }
+            result.put(entry.substring(0, eq), new InetSocketAddress(entry.substring(eq + 1, colon),
+                    Integer.parseInt(entry.substring(colon + 1))));
+        }
+        return result;
+    }
+
+    @Override
+    public Set<String> join(String nodeId, Listener listener) {
+        InetSocketAddress self = peers.get(nodeId);
+        if (self == null) {
+            throw new IllegalArgumentException("Node " + nodeId + " không có trong penalty.cluster.peers");
+        }
+        if (running) {
+            throw new IllegalStateException("Node " + this.nodeId + " đã vào cluster qua bus này");
+        }
+        this.nodeId = nodeId;
+        this.listener = listener;
+        this.inbox = new SerialExecutor(executor);
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(self);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Không nghe được trên " + self, e);
+        }
+        running = true;
+        executor.execute(this::acceptLoop);
+        // Nối thử một lần tới mọi node ngay tại đây: node nối được là node đã chạy trước node này
+        Set<String> existing = new HashSet<>();
+        for (Map.Entry<String, InetSocketAddress> peer : peers.entrySet()) {
+            if (peer.getKey().equals(nodeId)) {
+                continue;
+            }
+            Link link = connect(peer.getKey(), peer.getValue());
+            if (link != null) {
+                existing.add(peer.getKey());
+            }
+            executor.execute(() -> runLink(peer.getKey(), peer.getValue(), link));
+        }
+        return existing;
+    }
+
+    @Override
+    public void leave(String nodeId) {
+        if (!running || !nodeId.equals(this.nodeId)) {
+            return;
+        }
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        for (Link link : links.values()) {
+            link.close();
+        }
+        for (Socket socket : inbound.values()) {
+            closeQuietly(socket);
+        }
+    }
+
+    @Override
+    public void publish(ClusterEvent event) {
+        for (Link link : links.values()) {
+            enqueue(link, event);
+        }
+    }
+
+    @Override
+    public void send(String nodeId, ClusterEvent event) {
+        Link link = links.get(nodeId);
+        if (link != null) {
+            enqueue(link, event);
+        }
+    }
+
+    private void enqueue(Link link, ClusterEvent event) {
+        if (!link.queue.offer(event)) {
+            overflows.increment();
+            link.close();
+        }
+    }
+
+    // Giữ kết nối gửi tới một node: ghi sự kiện khi còn kết nối, nối lại định kỳ khi mất
+    private void runLink(String peer, InetSocketAddress address, Link initial) {
+        linkThreads.put(peer, Thread.currentThread());
+        Link link = initial;
+        if (link != null) {
+            memberJoined(peer);
+        }
+        try {
+            while (running) {
+                if (link == null) {
+                    link = connect(peer, address);
+                    if (link == null) {
+                        LockSupport.parkNanos(RECONNECT_NANOS);
+                        continue;
+                    }
+                    memberJoined(peer);
+                }
+                try {
+                    ClusterEvent event = link.queue.poll(RECONNECT_NANOS, TimeUnit.NANOSECONDS);
+                    if (!link.open) {
+                        throw new IOException("link closed");
+                    }
+                    if (event != null) {
+                        // Gom các sự kiện đang chờ rồi flush một lần
+                        link.out.writeMessage(event, link.queue.isEmpty());
+                    }
+                } catch (IOException e) {
+                    if (running) {
+                        Log.warn("cluster link lost", "peer", peer, "error", e.getMessage());
+                    }
+                    disconnect(peer, link);
+                    link = null;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } finally {
+            linkThreads.remove(peer, Thread.currentThread());
+        }
+    }
+
+    private Link connect(String peer, InetSocketAddress address) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            ManagedObjectOutputStream out =
+                    new ManagedObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            // Lời chào: id của node gửi
+            out.writeMessage(nodeId);
+            Link link = new Link(socket, out);
+            links.put(peer, link);
+            Log.info("cluster link up", "peer", peer, "address", address);
+            return link;
+        } catch (IOException e) {
+            closeQuietly(socket);
+            return null;
+        }
+    }
+
+    // Đóng cả hai chiều với node này, để node kia cũng thấy mất kết nối và gửi lại ảnh chụp khi nối lại
+    private void disconnect(String peer, Link link) {
+        link.close();
+        if (links.remove(peer, link)) {
+            closeQuietly(inbound.remove(peer));
+            inbox.execute(() -> listener.onMemberLeft(peer));
+        }
+    }
+
+    private void memberJoined(String peer) {
+        inbox.execute(() -> listener.onMemberJoined(peer));
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                executor.execute(() -> readLoop(socket));
+            } catch (IOException e) {
+                if (running) {
+                    Log.warn("cluster accept failed", "error", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        String peer = null;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            in.setObjectInputFilter(EVENT_FILTER);
+            Object hello = in.readObject();
+            if (!(hello instanceof String) || !peers.containsKey(hello)) {
+                Log.warn("cluster hello rejected", "remote", socket.getRemoteSocketAddress());
+                return;
+            }
+            peer = (String) hello;
+            closeQuietly(inbound.put(peer, socket));
+            // Node kia vừa chạy (lại): nối chiều gửi ngay thay vì chờ tới lần thử sau
+            Thread linkThread = linkThreads.get(peer);
+            if (linkThread != null) {
+                LockSupport.unpark(linkThread);
+            }
+            while (running) {
+                Object received = in.readObject();
+                if (received instanceof ClusterEvent) {
+                    ClusterEvent event = (ClusterEvent) received;
+                    inbox.execute(() -> {
+                        delivered.increment();
+                        listener.onEvent(event);
+                    });
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            if (running && peer != null) {
+                Log.warn("cluster inbound lost", "peer", peer, "error", e.getMessage());
+            }
+        } finally {
+            closeQuietly(socket);
+            if (peer != null && inbound.remove(peer, socket)) {
+                // Node kia không còn gửi được: đóng luôn chiều gửi để hai bên cùng đồng bộ lại
+                Link link = links.get(peer);
+                if (link != null) {
+                    link.close();
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    // Số lần ngắt kết nối vì node nhận không theo kịp
+    long getOverflowCount() {
+        return overflows.sum();
+    }
+}
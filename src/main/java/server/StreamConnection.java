@@ -0,0 +1,238 @@
+package server;
+
+import common.ManagedObjectOutputStream;
+import common.Message;
+import common.MessageCodec;
+import common.Protocol;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Kết nối blocking trên Socket: hỗ trợ cả client cũ (ObjectStream) và client dùng frame
+class StreamConnection implements ClientConnection {
+    private final Socket socket;
+    private final boolean headerSent;
+    private final byte[] prefetched;
+
+    // Gán trên thread đọc lúc bắt tay, đọc từ thread ghi nên để volatile
+    private volatile MessageCodec codec; // null = client cũ dùng ObjectStream
+    private ObjectInputStream objectIn;
+    private volatile ManagedObjectOutputStream objectOut;
+    private DataInputStream dataIn;
+    private volatile DataOutputStream dataOut;
+
+    private final int resetMessages;
+    private final long resetBytes;
+
+    // Message chờ gửi: frame đã mã hóa (byte[]) hoặc Message với client cũ.
+    // drainScheduled bảo đảm mỗi lúc chỉ một thread ghi của pool dùng chung đang rút hàng đợi này
+    private final Queue<Object> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int outboundLimit;
+    private final Executor writers;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private volatile boolean closing = false;
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder messagesWritten = new LongAdder();
+
+    StreamConnection(Socket socket, ServerConfig config, Executor writers) {
+        this(socket, false, new byte[0], config, writers);
+    }
+
+    // Dùng khi NIO chuyển giao client cũ: header đã gửi và một số byte đã được đọc trước
+    StreamConnection(Socket socket, boolean headerSent, byte[] prefetched, ServerConfig config, Executor writers) {
+        this.socket = socket;
+        this.headerSent = headerSent;
+        this.prefetched = prefetched;
+        this.resetMessages = config.getSerializationResetMessages();
+        this.resetBytes = config.getSerializationResetBytes();
+        this.outboundLimit = config.getOutboundQueueSize();
+        this.writers = writers;
+    }
+
+    // Bắt tay giao thức, gọi trên thread đọc trước khi read()
+    void open() throws IOException {
+        InputStream rawIn = socket.getInputStream();
+        if (prefetched.length > 0) {
+            rawIn = new SequenceInputStream(new ByteArrayInputStream(prefetched), rawIn);
+        }
+        OutputStream rawOut = new BufferedOutputStream(socket.getOutputStream());
+        DataOutputStream out = new DataOutputStream(rawOut);
+        if (!headerSent) {
+            // Gửi header trước để client cũ không bị treo khi tạo ObjectInputStream
+            out.writeInt(Protocol.STREAM_HEADER);
+            out.flush();
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(rawIn));
+        int magic = in.readInt();
+        if (magic == Protocol.STREAM_HEADER) {
+            // Header đã được gửi ở trên; reset định kỳ để handle table không phình mãi
+            objectOut = new ManagedObjectOutputStream(rawOut, false, resetMessages, resetBytes);
+            byte[] header = { (byte) 0xAC, (byte) 0xED, 0x00, 0x05 };
+            objectIn = new ObjectInputStream(new SequenceInputStream(new ByteArrayInputStream(header), in));
+        } else {
+            codec = Protocol.codecFor(magic);
+            if (codec == null) {
+                throw new StreamCorruptedException("Magic không hỗ trợ: " + Integer.toHexString(magic));
+            }
+            dataIn = in;
+            dataOut = out;
+        }
+    }
+
+    Message read() throws IOException, ClassNotFoundException {
+        if (codec == null) {
+            return (Message) objectIn.readObject();
+        }
+        byte[] payload = Protocol.readFrame(dataIn);
+        return codec.decode(payload, 0, payload.length);
+    }
+
+    // Mọi message đi qua hàng đợi một-người-ghi: không còn ghi đan xen từ nhiều thread,
+    // và các message đến gần nhau được gom vào một lần ghi socket
+    @Override
+    public void send(Message message) throws IOException {
+        checkHandshake();
+        enqueue(codec == null ? message : frame(codec.encode(message)));
+    }
+
+    @Override
+    public boolean sendBroadcast(Broadcast broadcast) throws IOException {
+        checkHandshake();
+        // Chỉ giới hạn broadcast; message trực tiếp (kết quả lượt sút...) không được bỏ
+        if (queued.get() >= outboundLimit) {
+            return false;
+        }
+        // Client cũ: handle table riêng từng stream nên không dùng chung bytes được
+        enqueue(codec == null ? broadcast.getMessage() : broadcast.frameFor(codec));
+        return true;
+    }
+
+    private void checkHandshake() throws IOException {
+        if (objectOut == null && dataOut == null) {
+            throw new IOException("Kết nối chưa hoàn tất bắt tay");
+        }
+    }
+
+    private static byte[] frame(byte[] payload) {
+        byte[] frame = new byte[4 + payload.length];
+        frame[0] = (byte) (payload.length >>> 24);
+        frame[1] = (byte) (payload.length >>> 16);
+        frame[2] = (byte) (payload.length >>> 8);
+        frame[3] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, 4, payload.length);
+        return frame;
+    }
+
+    private void enqueue(Object item) {
+        queued.incrementAndGet();
+        outbound.add(item);
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            writers.execute(this::drain);
+        }
+    }
+
+    // Chạy trên thread ghi: ghi hết hàng đợi vào buffer rồi flush một lần
+    private void drain() {
+        try {
+            Object item;
+            int written = 0;
+            while ((item = outbound.poll()) != null) {
+                queued.decrementAndGet();
+                if (item instanceof byte[]) {
+                    dataOut.write((byte[]) item);
+                } else {
+                    objectOut.writeMessage(item, false);
+                }
+                written++;
+            }
+            if (written > 0) {
+                if (dataOut != null) {
+                    dataOut.flush();
+                } else {
+                    objectOut.flush();
+                }
+                writes.increment();
+                messagesWritten.add(written);
+            }
+        } catch (IOException e) {
+            closing = true;
+            outbound.clear();
+            queued.set(0);
+            closeSocket();
+        } finally {
+            drainScheduled.set(false);
+            // Có thể có phần tử mới đến sau lần poll cuối
+            if (!outbound.isEmpty()) {
+                scheduleDrain();
+            } else if (closing) {
+                closeSocket();
+            }
+        }
+    }
+
+    // Số message đang chờ gửi
+    int getOutboundSize() {
+        return queued.get();
+    }
+
+    // Số message trung bình trên mỗi lần flush socket
+    double getCoalescingRatio() {
+        long flushes = writes.sum();
+        return flushes == 0 ? 0 : (double) messagesWritten.sum() / flushes;
+    }
+
+    @Override
+    public boolean isLegacy() {
+        return codec == null && objectOut != null;
+    }
+
+    // Kích thước handle table của ObjectOutputStream (0 với client dùng frame)
+    @Override
+    public int getHandleTableSize() {
+        ManagedObjectOutputStream out = objectOut;
+        return out != null ? out.getHandleCount() : 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closing && !socket.isClosed();
+    }
+
+    // Đóng sau khi thread ghi gửi hết các message đang chờ (vd. logout_success)
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        if (objectOut == null && dataOut == null) {
+            socket.close();
+            return;
+        }
+        scheduleDrain();
+    }
+
+    // Đóng ngay, bỏ các message chưa gửi
+    @Override
+    public void abort() throws IOException {
+        closing = true;
+        socket.close();
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // đã đóng
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package server;
+
+import common.User;
+import common.UserQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * Danh bạ user giữ trong bộ nhớ (id, username, points) để get_users không phải quét bảng users.
+ * Sắp theo username (không phân biệt hoa thường) nên tìm theo tiền tố và phân trang theo con trỏ
+ * chỉ tốn O(log n + kích thước trang); người online có chỉ mục riêng cùng thứ tự, nên trang
+ * "chỉ online" cũng vậy. Trạng thái online/ingame lấy từ bảng trạng thái của Server.
+ */
+class UserDirectory {
+
+    static final int MAX_PAGE_SIZE = 500;
+
+    // Giá trị là bản chụp bất biến: khi đổi điểm thì thay bằng User mới, không sửa tại chỗ
+    private final ConcurrentSkipListMap<String, User> byName = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Integer, User> byId = new ConcurrentHashMap<>();
+    // Cùng khóa với byName, chỉ gồm user đang online/ingame
+    private final ConcurrentSkipListMap<String, User> onlineByName = new ConcurrentSkipListMap<>();
+    // Id đang online, kể cả user chưa có trong danh bạ (presence từ node khác có thể đến trước khi nạp)
+    private final Set<Integer> onlineIds = ConcurrentHashMap.newKeySet();
+    // Giữ khi sửa để ba bảng trên khớp nhau; đọc không cần khóa
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    void loadAll(Collection<User> users) {
+        for (User user : users) {
+            put(user);
+        }
+    }
+
+    void put(User user) {
+        User entry = new User(user.getId(), user.getUsername(), user.getPoints(), null);
+        writeLock.lock();
+        try {
+            User old = byId.put(entry.getId(), entry);
+            if (old != null && !old.getUsername().equals(entry.getUsername())) {
+                byName.remove(key(old));
+                onlineByName.remove(key(old));
+            }
+            byName.put(key(entry), entry);
+            if (onlineIds.contains(entry.getId())) {
+                onlineByName.put(key(entry), entry);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void addPoints(int userId, int delta) {
+        writeLock.lock();
+        try {
+            User old = byId.get(userId);
+            if (old == null) {
+                return;
+            }
+            User entry = new User(userId, old.getUsername(), old.getPoints() + delta, null);
+            byId.put(userId, entry);
+            byName.put(key(entry), entry);
+            if (onlineIds.contains(userId)) {
+                onlineByName.put(key(entry), entry);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Server gọi mỗi khi trạng thái của user đổi giữa offline và online/ingame
+    void setOnline(int userId, boolean online) {
+        writeLock.lock();
+        try {
+            if (!(online ? onlineIds.add(userId) : onlineIds.remove(userId))) {
+                return;
+            }
+            User entry = byId.get(userId);
+            if (entry == null) {
+                return;
+            }
+            if (online) {
+                onlineByName.put(key(entry), entry);
+            } else {
+                onlineByName.remove(key(entry));
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Bản ghi hiện tại của user, null nếu chưa có trong danh bạ
+    User get(int userId) {
+        return byId.get(userId);
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    // Toàn bộ danh bạ (get_users không tham số của client cũ)
+    List<User> all(IntFunction<String> statusOf) {
+        List<User> result = new ArrayList<>(byName.size());
+        for (User entry : byName.values()) {
+            result.add(withStatus(entry, statusOf));
+        }
+        return result;
+    }
+
+    List<User> query(UserQuery query, IntFunction<String> statusOf) {
+        int offset = Math.max(0, query.getOffset());
+        int limit = query.getLimit() <= 0 ? MAX_PAGE_SIZE : Math.min(query.getLimit(), MAX_PAGE_SIZE);
+        String prefix = query.getPrefix() == null ? "" : query.getPrefix().toLowerCase(Locale.ROOT);
+        List<User> page = new ArrayList<>(Math.min(limit, 64));
+
+        NavigableMap<String, User> range = query.isOnlineOnly() ? onlineByName : byName;
+        if (!prefix.isEmpty()) {
+            range = range.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        }
+        if (query.getAfterUsername() != null) {
+            // Con trỏ: nhảy thẳng tới sau user cuối của trang trước, không duyệt lại các trang đã lấy
+            range = range.tailMap(key(query.getAfterUsername(), query.getAfterId()), false);
+        }
+        // offset vẫn được hỗ trợ cho client cũ, nhưng phải duyệt qua offset phần tử
+        int skipped = 0;
+        for (User entry : range.values()) {
+            if (skipped++ < offset) {
+                continue;
+            }
+            page.add(withStatus(entry, statusOf));
+            if (page.size() >= limit) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    private static User withStatus(User entry, IntFunction<String> statusOf) {
+        return new User(entry.getId(), entry.getUsername(), entry.getPoints(), statusOf.apply(entry.getId()));
+    }
+
+    // Khóa sắp xếp: username thường + id để không đụng nhau khi chỉ khác hoa thường
+    private static String key(User user) {
+        return key(user.getUsername(), user.getId());
+    }
+
+    private static String key(String username, int id) {
+        return username.toLowerCase(Locale.ROOT) + '\u0000' + id;
+    }
+}
@@ -0,0 +1,110 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Công cụ chạy một lần: tính lại user_stats từ toàn bộ match_details.
+ * Quét match_details theo từng khoảng id (mặc định 50000 dòng), mỗi khoảng GROUP BY rồi cộng dồn
+ * vào bảng tạm và commit riêng, nên không giữ transaction hay result set lớn. Xong thì đổi tên
+ * bảng tạm thành user_stats trong một lệnh RENAME. Nên chạy khi server đã dừng, vì các lượt sút
+ * ghi trong lúc quét sẽ không có trong bảng mới.
+ *
+ * Chạy: java -cp ... -Dpenalty.db.url=... server.UserStatsRebuilder [chunkSize]
+ */
+public class UserStatsRebuilder {
+
+    private static final String ADD_SCORED = "INSERT INTO user_stats_rebuild (user_id, goals_scored) "
+            + "SELECT shooter_id, COUNT(*) FROM match_details "
+            + "WHERE id >= ? AND id < ? AND result = 'win' GROUP BY shooter_id "
+            + "ON DUPLICATE KEY UPDATE goals_scored = goals_scored + VALUES(goals_scored)";
+    private static final String ADD_SAVED = "INSERT INTO user_stats_rebuild (user_id, goals_saved) "
+            + "SELECT goalkeeper_id, COUNT(*) FROM match_details "
+            + "WHERE id >= ? AND id < ? AND result = 'lose' GROUP BY goalkeeper_id "
+            + "ON DUPLICATE KEY UPDATE goals_saved = goals_saved + VALUES(goals_saved)";
+
+    private final ServerConfig config;
+    private final int chunkSize;
+
+    public UserStatsRebuilder(ServerConfig config, int chunkSize) {
+        this.config = config;
+        this.chunkSize = chunkSize;
+    }
+
+    public void rebuild() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(config.getDbUrl(), config.getDbUser(),
+                config.getDbPassword())) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS user_stats (user_id INT PRIMARY KEY, "
+                        + "points INT NOT NULL DEFAULT 0, goals_scored INT NOT NULL DEFAULT 0, "
+                        + "goals_saved INT NOT NULL DEFAULT 0, "
+                        + "FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE, "
+                        + "INDEX idx_user_stats_rank (points DESC, goals_scored DESC, goals_saved DESC))");
+                stmt.executeUpdate("DROP TABLE IF EXISTS user_stats_rebuild");
+                stmt.executeUpdate("CREATE TABLE user_stats_rebuild LIKE user_stats");
+                // Mọi user đều có một dòng, kể cả chưa từng đá
+                stmt.executeUpdate("INSERT INTO user_stats_rebuild (user_id, points) SELECT id, points FROM users");
+            }
+
+            long minId;
+            long maxId;
+            try (Statement stmt = conn.createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT MIN(id), MAX(id) FROM match_details")) {
+                rs.next();
+                minId = rs.getLong(1);
+                maxId = rs.getLong(2);
+            }
+
+            if (maxId > 0) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement scored = conn.prepareStatement(ADD_SCORED);
+                        PreparedStatement saved = conn.prepareStatement(ADD_SAVED)) {
+                    long start = System.nanoTime();
+                    for (long from = minId; from <= maxId; from += chunkSize) {
+                        long to = from + chunkSize;
+                        addChunk(scored, from, to);
+                        addChunk(saved, from, to);
+                        conn.commit();
+                        System.out.printf("user_stats: đã quét tới id %d / %d (%d ms)%n",
+                                Math.min(to - 1, maxId), maxId, (System.nanoTime() - start) / 1_000_000);
+                    }
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            }
+
+            try (Statement stmt = conn.createStatement()) {
+                // Đổi bảng nguyên tử: người đọc luôn thấy bảng cũ hoặc bảng mới đầy đủ
+                stmt.executeUpdate("RENAME TABLE user_stats TO user_stats_old, user_stats_rebuild TO user_stats");
+                stmt.executeUpdate("DROP TABLE user_stats_old");
+                // CREATE TABLE ... LIKE không chép khóa ngoại
+                stmt.executeUpdate("ALTER TABLE user_stats ADD FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE");
+            }
+        }
+    }
+
+    private static void addChunk(PreparedStatement stmt, long from, long to) throws SQLException {
+        stmt.setLong(1, from);
+        stmt.setLong(2, to);
+        stmt.executeUpdate();
+    }
+
+    public static void main(String[] args) {
+        int chunkSize = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        try {
+            new UserStatsRebuilder(new ServerConfig(), chunkSize).rebuild();
+            System.out.println("Đã tính lại user_stats từ match_details");
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi tính lại user_stats: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
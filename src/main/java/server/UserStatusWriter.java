@@ -0,0 +1,106 @@
+package server;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gom các thay đổi users.status theo user id rồi ghi một batch mỗi flushInterval.
+ * Nhiều lần đổi trạng thái của cùng một user trong một chu kỳ chỉ còn lại giá trị cuối,
+ * nên bộ nhớ bị chặn bởi số user đang thay đổi trạng thái.
+ */
+class UserStatusWriter implements AutoCloseable {
+
+    private final DatabaseManager dbManager;
+    private final ConcurrentHashMap<Integer, String> pending = new ConcurrentHashMap<>();
+    private final long flushIntervalNanos;
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+
+    UserStatusWriter(DatabaseManager dbManager, long flushIntervalMillis) {
+        this.dbManager = dbManager;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.thread = new Thread(this::runLoop, "user-status-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void enqueue(int userId, String status) {
+        submitted.increment();
+        pending.put(userId, status);
+    }
+
+    void flush() {
+        flushLock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            Map<Integer, String> batch = new LinkedHashMap<>();
+            for (Map.Entry<Integer, String> e : pending.entrySet()) {
+                // remove(key, value): nếu trạng thái vừa đổi tiếp thì giữ lại cho lần flush sau
+                if (pending.remove(e.getKey(), e.getValue())) {
+                    batch.put(e.getKey(), e.getValue());
+                }
+            }
+            try {
+                dbManager.updateUserStatusBatch(batch);
+                written.add(batch.size());
+            } catch (SQLException ex) {
+                failedFlushes.increment();
+                Log.error("user status batch failed", "users", batch.size(), "error", ex.getMessage());
+                // Trả lại để thử ở chu kỳ sau, trừ khi đã có trạng thái mới hơn
+                batch.forEach(pending::putIfAbsent);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void runLoop() {
+        while (running) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+            flush();
+        }
+    }
+
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    // Số lần đổi trạng thái được gửi vào
+    long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    // Số dòng UPDATE thực sự xuống DB sau khi gộp
+    long getWrittenCount() {
+        return written.sum();
+    }
+
+    long getFailedFlushCount() {
+        return failedFlushes.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}